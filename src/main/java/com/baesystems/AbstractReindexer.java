@@ -0,0 +1,308 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base of reindexers which read documents once, optionally transform them and write them to one or more destination
+ * sinks.
+ */
+public abstract class AbstractReindexer implements Reindexer {
+
+    private static final int QUEUE_SIZE = 4;
+
+    private final List<? extends DocumentSink> sinks;
+    private int bulkConcurrency = 1;
+    private long documentLimit;
+    private double maxErrorRate = 1;
+    private FanOutWriter writer;
+    private List<DocumentTransformer> transformers;
+    private int transformThreads;
+    private TransformStage transformStage;
+    private Pacer sourcePacer;
+    private Map<String, Pacer> destinationPacers;
+    private ScrollKeepAlive keepAlive = new ScrollKeepAlive();
+    private ScrollRegistry scrolls;
+
+    /**
+     * Instantiates a new reindexer.
+     *
+     * @param sinks destinations of the documents
+     */
+    protected AbstractReindexer(final List<? extends DocumentSink> sinks) {
+        this.sinks = sinks;
+    }
+
+    /**
+     * Sets number of concurrent bulk requests of each sink. Has to be set before re-indexing starts.
+     *
+     * @param bulkConcurrency the bulk concurrency
+     */
+    public void setBulkConcurrency(final int bulkConcurrency) {
+        this.bulkConcurrency = bulkConcurrency;
+    }
+
+    /**
+     * Sets maximum number of documents read by one {@link #reindex} call, used for short trial runs.
+     *
+     * @param documentLimit the document limit, 0 for no limit
+     */
+    public void setDocumentLimit(final long documentLimit) {
+        this.documentLimit = documentLimit;
+    }
+
+    /**
+     * Sets share of documents which may fail in one sink before re-indexing of the window fails.
+     *
+     * @param maxErrorRate the maximum error rate, 0 fails the window on any failed document, 1 only logs them
+     */
+    public void setMaxErrorRate(final double maxErrorRate) {
+        this.maxErrorRate = maxErrorRate;
+    }
+
+    /**
+     * Sets transformers applied to every document before it is written. Has to be set before re-indexing starts.
+     *
+     * @param transformers the transformers, applied in the given order
+     * @param threads number of transforming threads
+     */
+    public void setTransformers(final List<DocumentTransformer> transformers, final int threads) {
+        this.transformers = transformers;
+        this.transformThreads = threads;
+    }
+
+    /**
+     * Sets pacers throttling reading from source and writing to destinations. Has to be set before re-indexing
+     * starts.
+     *
+     * @param sourcePacer pacer of the scroll loop, null for no throttling
+     * @param destinationPacers pacers of bulk requests keyed by destination cluster (see
+     *            {@link DocumentSink#getCluster()}), null for no throttling
+     */
+    public void setPacers(final Pacer sourcePacer, final Map<String, Pacer> destinationPacers) {
+        this.sourcePacer = sourcePacer;
+        this.destinationPacers = destinationPacers;
+
+        // reader can wait for the source pause and then block on a full queue of the longest paused sink
+        long destinationPause = 0;
+        if (destinationPacers != null) {
+            for (Pacer pacer : destinationPacers.values()) {
+                destinationPause = Math.max(destinationPause, getMaxPause(pacer));
+            }
+        }
+        this.keepAlive = new ScrollKeepAlive(getMaxPause(sourcePacer) + destinationPause);
+    }
+
+    /**
+     * Waits according to health of source cluster. Called before every scroll request.
+     */
+    protected void awaitSourcePace() {
+        if (this.sourcePacer != null) {
+            this.sourcePacer.await();
+        }
+    }
+
+    /**
+     * Records time spent on one page of documents, from receiving it until requesting the next one.
+     *
+     * @param time the time in milliseconds
+     */
+    protected void observePage(final long time) {
+        this.keepAlive.observe(time);
+    }
+
+    /**
+     * Returns keep-alive for the next scroll request, adapted to observed processing time of pages and bulk latency of
+     * sinks and extended by the longest pause of the pacers.
+     *
+     * @return the keep-alive in milliseconds
+     */
+    protected long getScrollKeepAlive() {
+        FanOutWriter writer = writer();
+        long backlog = writer.getBacklogTime(this.transformers != null ? QUEUE_SIZE : 0);
+        if (!writer.hasLatency()) {
+            // first bulk request of some sink hasn't completed yet
+            backlog = Math.max(backlog, ScrollKeepAlive.INITIAL);
+        }
+        return this.keepAlive.get(backlog);
+    }
+
+    /**
+     * Returns registry of open scroll contexts, which are cleared on close or JVM shutdown at the latest.
+     *
+     * @return the scroll registry
+     */
+    protected synchronized ScrollRegistry getScrolls() {
+        if (this.scrolls == null) {
+            this.scrolls = new ScrollRegistry(new ScrollRegistry.Clearer() {
+                @Override
+                public void clear(final List<String> scrollIds) {
+                    clearScrolls(scrollIds);
+                }
+            });
+        }
+        return this.scrolls;
+    }
+
+    /**
+     * Clears scroll contexts in the source cluster.
+     *
+     * @param scrollIds the scroll ids
+     */
+    protected abstract void clearScrolls(List<String> scrollIds);
+
+    /**
+     * Passes batch of documents to all sinks. If any transformer is set, the batch is transformed in background first.
+     *
+     * @param batch the documents
+     */
+    protected void write(final List<Document> batch) {
+        if (this.transformers != null) {
+            transformStage().submit(batch);
+        } else if (!batch.isEmpty()) {
+            writer().write(batch);
+        }
+    }
+
+    /**
+     * Waits until all documents are transformed and written and logs the totals of every sink.
+     *
+     * @throws RuntimeException if transformation of any batch failed, any sink lost a batch or failed too many
+     *             documents of the window
+     */
+    protected void flush() {
+        try {
+            if (this.transformers != null) {
+                transformStage().flush();
+            }
+        } finally {
+            try {
+                writer().flush();
+            } finally {
+                writer().report();
+            }
+        }
+    }
+
+    /**
+     * Waits until batches of a failed window are transformed and written and drops their failures, so they are not
+     * counted in the next window.
+     */
+    protected void discardWindow() {
+        try {
+            if (this.transformers != null) {
+                transformStage().flush();
+            }
+        } catch (RuntimeException e) {
+            // the window has failed already
+        }
+        try {
+            writer().flush();
+        } catch (IllegalStateException e) {
+            // the window has failed already
+        }
+    }
+
+    /**
+     * Checks whether reading should stop as the document limit is reached.
+     *
+     * @param read number of documents read so far
+     * @return true, if limit reached
+     */
+    protected boolean isDocumentLimitReached(final long read) {
+        return this.documentLimit > 0 && read >= this.documentLimit;
+    }
+
+    /**
+     * Returns number of documents written, summed over all sinks.
+     *
+     * @return the written documents
+     */
+    public long getWrittenDocuments() {
+        return writer().getDocuments();
+    }
+
+    /**
+     * Returns number of documents which failed, summed over all sinks.
+     *
+     * @return the failed documents
+     */
+    public long getFailedDocuments() {
+        return writer().getErrors();
+    }
+
+    /**
+     * Creates destination indices of documents with given date in all sinks, unless they exist already.
+     *
+     * @param date the document date, not used by indices whose name doesn't depend on it
+     */
+    public void initIndices(final Object date) {
+        for (DocumentSink sink : this.sinks) {
+            sink.initIndex(date);
+        }
+    }
+
+    /**
+     * Returns number of shards of the source index, summed over all indices it resolves to. Every scroll page holds up
+     * to batch size documents from each shard.
+     *
+     * @return the shards
+     */
+    public abstract int getSourceShards();
+
+    /**
+     * Deletes destination indices which were created by this reindexer. Used to clean scratch destinations up.
+     */
+    public void deleteCreatedIndices() {
+        for (DocumentSink sink : this.sinks) {
+            sink.deleteCreatedIndices();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.scrolls != null) {
+            this.scrolls.close();
+            this.scrolls = null;
+        }
+        if (this.transformStage != null) {
+            this.transformStage.close();
+            this.transformStage = null;
+        }
+        if (this.writer != null) {
+            this.writer.close();
+            this.writer = null;
+        }
+    }
+
+    private static long getMaxPause(final Pacer pacer) {
+        return pacer == null ? 0 : pacer.getMaxPause();
+    }
+
+    private synchronized TransformStage transformStage() {
+        if (this.transformStage == null) {
+            final FanOutWriter writer = writer();
+            this.transformStage = new TransformStage(this.transformers, this.transformThreads, QUEUE_SIZE,
+                    new TransformStage.Output() {
+                        @Override
+                        public void write(final List<Document> batch) {
+                            writer.write(batch);
+                        }
+                    });
+        }
+        return this.transformStage;
+    }
+
+    private synchronized FanOutWriter writer() {
+        if (this.writer == null) {
+            this.writer = new FanOutWriter(this.sinks, QUEUE_SIZE, this.bulkConcurrency, this.destinationPacers,
+                    this.maxErrorRate);
+        }
+        return this.writer;
+    }
+}
@@ -5,7 +5,17 @@
  */
 package com.baesystems;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.commons.lang3.StringUtils;
+import org.elasticsearch.client.Client;
 import org.joda.time.DateTime;
 import org.joda.time.LocalTime;
 import org.joda.time.format.DateTimeFormat;
@@ -26,7 +36,7 @@ public class App {
 	@Parameter(names = { "-sh", "--src-host" }, description = "Coma separated host list of Elasticsearch src hosts.", required = true)
 	private String srcHost;
 
-	@Parameter(names = { "-dh", "--dst-host" }, description = "Coma separated host list of Elasticsearch dst hosts.", required = false)
+	@Parameter(names = { "-dh", "--dst-host" }, description = "Coma separated host list of Elasticsearch dst hosts. Documents are copied to every host.", required = false)
 	private String dstHost;
 
 	@Parameter(names = { "-sd", "--start-date" }, description = "Start date from start reindexing in yyyyMMdd format (20150701)(Inclusive)")
@@ -38,7 +48,7 @@ public class App {
 	@Parameter(names = { "-i", "--index" }, description = "Name of the index", required = true)
 	private String index;
 
-	@Parameter(names = { "-d", "--destination" }, description = "Name of the destination index", required = false)
+	@Parameter(names = { "-d", "--destination" }, description = "Coma separated names of the destination indices. Documents are copied to every index. Date pattern in curly brackets routes documents into time based indices, e.g. logs-{yyyy.MM.dd}", required = false)
 	private String newIndex;
 
 	@Parameter(names = { "-t", "--type" }, description = "Name of the type", required = true)
@@ -53,9 +63,81 @@ public class App {
 	@Parameter(names = { "-tbs", "--temp-batch-size" }, description = "Temporal batch size in days")
 	private int temporalBatchSize = 1;
 
+	@Parameter(names = { "-bc", "--bulk-concurrency" }, description = "Number of concurrent bulk requests to each destination")
+	private int bulkConcurrency = 1;
+
+	@Parameter(names = { "--max-error-rate" }, description = "Share of documents which may fail in one destination before re-indexing of the window fails. Default 1 only logs failed documents.")
+	private double maxErrorRate = 1;
+
+	@Parameter(names = { "-tr", "--transformer" }, description = "Coma separated class names of document transformers, applied in the given order")
+	private List<String> transformers = new ArrayList<String>();
+
+	@Parameter(names = { "-tt", "--transform-threads" }, description = "Number of threads transforming documents")
+	private int transformThreads = Runtime.getRuntime().availableProcessors();
+
+	@Parameter(names = { "--calibrate" }, description = "Benchmark batch sizes and bulk concurrencies on a sample window instead of re-indexing")
+	private boolean calibrate;
+
+	@Parameter(names = { "--calibrate-docs" }, description = "Minimum number of documents copied by one calibration trial, trials copy at least 10 bulk requests per bulk thread")
+	private long calibrateDocuments = 20000;
+
+	@Parameter(names = { "--calibrate-batch-sizes" }, description = "Coma separated batch sizes tried by calibration")
+	private List<Integer> calibrateBatchSizes = Arrays.asList(100, 500, 1000, 2000);
+
+	@Parameter(names = { "--calibrate-concurrency" }, description = "Coma separated bulk concurrencies tried by calibration")
+	private List<Integer> calibrateConcurrencies = Arrays.asList(1, 2, 4);
+
+	@Parameter(names = { "--calibrate-repeats" }, description = "Number of trials of every combination, median of them is compared")
+	private int calibrateRepeats = 3;
+
+	@Parameter(names = { "--pace" }, description = "Pause or slow down re-indexing while source or destination cluster is overloaded")
+	private boolean pace;
+
+	@Parameter(names = { "--pace-interval" }, description = "Interval of polling node stats of source and destination clusters in seconds")
+	private int paceInterval = 10;
+
+	@Parameter(names = { "--pace-max-pause" }, description = "Maximum length of a pause in seconds, re-indexing continues at slow pace afterwards")
+	private int paceMaxPause = 30;
+
+	@Parameter(names = { "--pace-max-queue" }, description = "Number of queued tasks in search, bulk or index thread pool of any node which pauses re-indexing")
+	private long paceMaxQueue = 50;
+
+	@Parameter(names = { "--pace-max-heap" }, description = "Heap usage of any node in percent which pauses re-indexing")
+	private int paceMaxHeap = 90;
+
+	@Parameter(names = { "--pace-max-gc" }, description = "Share of time any node spends in GC in percent which pauses re-indexing")
+	private int paceMaxGc = 20;
+
+	@Parameter(names = { "--pace-slow-delay" }, description = "Delay before every request in milliseconds when re-indexing is slowed down")
+	private long paceSlowDelay = 1000;
+
 	@Parameter(names = { "-cn", "--cluster-name" }, description = "Name of the Elasticsearch cluster", required = false)
 	private String clusterName;
 
+	@Parameter(names = { "-ld", "--lease-dir" }, description = "Directory shared by all workers of the job. Enables distributed mode.")
+	private String leaseDir;
+
+	@Parameter(names = { "-li", "--lease-index" }, description = "Coordination index shared by all workers of the job. Enables distributed mode.")
+	private String leaseIndex;
+
+	@Parameter(names = { "-lh", "--lease-host" }, description = "Coma separated transport host list of the cluster with lease index. Defaults to src hosts within one cluster, required with --dst-host.")
+	private String leaseHost;
+
+	@Parameter(names = { "-lt", "--lease-time" }, description = "Lease time of a window in seconds")
+	private int leaseTime = 120;
+
+	@Parameter(names = { "-j", "--job-id" }, description = "Id of the job shared by all workers. Defaults to <index>_<type>.")
+	private String jobId;
+
+	@Parameter(names = { "-w", "--worker-id" }, description = "Id of this worker. Defaults to <pid>@<host>.")
+	private String workerId;
+
+	private ClientManager clientManager;
+
+	private Pacer sourcePacer;
+
+	private Map<String, Pacer> destinationPacers;
+
 	/**
 	 * Run re-indexing operation.
 	 */
@@ -76,54 +158,294 @@ public class App {
 			}
 		}
 
-		Reindexer reindexer = null;
-		if (dstHost != null) {
-			reindexer = new InterClusterReindexer(this.index, this.type,
-					this.field, this.batchSize, this.srcHost, this.dstHost);
-		} else {
-			String[] hosts = StringUtils.split(this.srcHost, ",");
-			ClientManager manager = new ClientManager(this.clusterName, hosts);
+		// calibration trials write only to scratch index and are not paced,
+		// throttling would skew their throughput
+		String scratchIndex = "calibration-" + this.index.toLowerCase() + "-"
+				+ System.currentTimeMillis();
+		ClusterHealthMonitor monitor = null;
+		if (!this.calibrate) {
+			monitor = createHealthMonitor();
+		}
+		if (monitor != null) {
+			monitor.start();
+		}
 
-			reindexer = new IntraClusterReindexer(this.index, this.type,
-					this.field, this.batchSize, manager.getClient(),
-					this.newIndex);
+		final AbstractReindexer reindexer = createReindexer(this.batchSize,
+				this.dstHost, this.calibrate ? scratchIndex : this.newIndex);
+
+		List<TimeWindow> windows;
+		if (field != null) {
+			windows = TimeWindow.split(startDate, endTime, temporalBatchSize);
+		} else {
+			windows = Collections.singletonList(new TimeWindow(null, null));
 		}
 
-		long numberOfDocumentInPeriod = reindexer.getDocumentNumberInPeriod(
-				startDate, endTime);
-		LOG.info("Founded {} items to reindex.", numberOfDocumentInPeriod);
+		final Map<TimeWindow, Long> windowCounts = reindexer
+				.getDocumentNumberInWindows(windows);
+
+		long number = 0;
+		for (Long count : windowCounts.values()) {
+			number += count;
+		}
+		final long numberOfDocumentInPeriod = number;
+		LOG.info("Founded {} items to reindex in {} windows.",
+				numberOfDocumentInPeriod, windows.size());
 
 		if (numberOfDocumentInPeriod == 0) {
 			LOG.info("Re-index finished - no more documents.");
 		}
 
-		long startTime = System.currentTimeMillis();
-		while (true) {
-			DateTime beforeDate = null;
-
-			if (field != null) {
-				beforeDate = endTime.minusDays(temporalBatchSize);
+		if (this.calibrate) {
+			calibrate(windows, windowCounts, reindexer.getSourceShards(),
+					scratchIndex);
+			reindexer.close();
+			return;
+		}
 
-				if (beforeDate.isBefore(startDate)) {
-					beforeDate = startDate;
+		LeaseStore leaseStore = createLeaseStore();
+		final boolean distributed = leaseStore != null;
+		final AtomicLong done = new AtomicLong();
+		WorkCoordinator.Task task = new WorkCoordinator.Task() {
+			@Override
+			public void process(final TimeWindow window) {
+				reindexer.reindex(window.getFrom(), window.getTo());
+
+				long processed = done.addAndGet(windowCounts.get(window));
+				long percent = numberOfDocumentInPeriod > 0 ? processed * 100
+						/ numberOfDocumentInPeriod : 100;
+				if (distributed) {
+					// other workers copy the rest of the job
+					LOG.info("This worker copied {}% of the job ({} of {} documents)",
+							percent, processed, numberOfDocumentInPeriod);
+				} else {
+					LOG.info("Progress {}% ({} of {} documents)", percent,
+							processed, numberOfDocumentInPeriod);
 				}
 			}
+		};
 
-			reindexer.reindex(beforeDate, endTime);
-
-			if (field != null) {
-				endTime = beforeDate;
-				if (beforeDate.equals(startDate)) {
-					break;
-				}
+		long startTime = System.currentTimeMillis();
+		try {
+			if (distributed) {
+				String worker = StringUtils.defaultIfBlank(this.workerId,
+						ManagementFactory.getRuntimeMXBean().getName());
+				WorkCoordinator coordinator = new WorkCoordinator(leaseStore,
+						worker, this.leaseTime * 1000L);
+
+				coordinator.run(windows, task);
 			} else {
-				break;
+				// failed window doesn't stop the others, it is re-indexed by running the job again
+				List<TimeWindow> failed = new ArrayList<TimeWindow>();
+				for (TimeWindow window : windows) {
+					try {
+						task.process(window);
+					} catch (RuntimeException e) {
+						LOG.error("Re-indexing of window " + window + " failed", e);
+						failed.add(window);
+					}
+				}
+				if (!failed.isEmpty()) {
+					throw new IllegalStateException("Re-indexing of "
+							+ failed.size() + " windows failed: " + failed);
+				}
+			}
+		} finally {
+			reindexer.close();
+			if (monitor != null) {
+				monitor.stop();
 			}
 		}
 		LOG.info("Completed in {}", new LocalTime(System.currentTimeMillis()
 				- startTime));
 	}
 
+	/**
+	 * Creates reindexer with all configured stages.
+	 *
+	 * @param batchSize the batch size
+	 * @param dstHosts coma separated destination hosts, null within one cluster
+	 * @param newIndices coma separated destination indices
+	 * @return the reindexer
+	 */
+	private AbstractReindexer createReindexer(final int batchSize,
+			final String dstHosts, final String newIndices) {
+		AbstractReindexer reindexer;
+		if (dstHosts != null) {
+			String[] indices = StringUtils.split(
+					StringUtils.defaultIfBlank(newIndices, this.index), ",");
+			reindexer = new InterClusterReindexer(this.index, this.type,
+					this.field, batchSize, this.srcHost,
+					Arrays.asList(StringUtils.split(dstHosts, ",")),
+					Arrays.asList(indices));
+		} else {
+			if (newIndices == null) {
+				throw new IllegalArgumentException(
+						"Destination index is required within one cluster.");
+			}
+			reindexer = new IntraClusterReindexer(this.index, this.type,
+					this.field, batchSize, getClientManager().getClient(),
+					StringUtils.split(newIndices, ","));
+		}
+
+		reindexer.setBulkConcurrency(this.bulkConcurrency);
+		reindexer.setMaxErrorRate(this.maxErrorRate);
+		reindexer.setPacers(this.sourcePacer, this.destinationPacers);
+		if (!this.transformers.isEmpty()) {
+			reindexer.setTransformers(createTransformers(),
+					this.transformThreads);
+		}
+		return reindexer;
+	}
+
+	/**
+	 * Creates monitor of source and destination clusters, which paces
+	 * reindexers created afterwards.
+	 *
+	 * @return the monitor, null when pacing is disabled
+	 */
+	private ClusterHealthMonitor createHealthMonitor() {
+		if (!this.pace || this.paceInterval <= 0) {
+			return null;
+		}
+
+		this.sourcePacer = new Pacer("scroll", this.paceSlowDelay,
+				this.paceMaxPause * 1000L);
+		// every destination cluster paces only its own sinks
+		this.destinationPacers = new LinkedHashMap<String, Pacer>();
+		ClusterHealthMonitor monitor = new ClusterHealthMonitor(
+				this.paceInterval * 1000L, this.paceMaxQueue, this.paceMaxHeap,
+				this.paceMaxGc);
+
+		if (this.dstHost != null) {
+			monitor.watch(new HttpStatsProbe(this.srcHost), this.sourcePacer,
+					"search");
+			for (String host : StringUtils.split(this.dstHost, ",")) {
+				Pacer pacer = new Pacer("bulk to " + host, this.paceSlowDelay,
+						this.paceMaxPause * 1000L);
+				this.destinationPacers.put(host, pacer);
+				monitor.watch(new HttpStatsProbe(host), pacer, "bulk", "index");
+			}
+		} else {
+			Pacer pacer = new Pacer("bulk", this.paceSlowDelay,
+					this.paceMaxPause * 1000L);
+			this.destinationPacers.put(DocumentSink.SOURCE_CLUSTER, pacer);
+
+			NodeStatsProbe probe = new ClientStatsProbe(getClientManager()
+					.getClient(), this.srcHost);
+			monitor.watch(probe, this.sourcePacer, "search");
+			monitor.watch(probe, pacer, "bulk", "index");
+		}
+		return monitor;
+	}
+
+	/**
+	 * Runs trial copies of the newest non empty window into scratch index and
+	 * reports the best batch size and bulk concurrency.
+	 *
+	 * @param windows all windows
+	 * @param windowCounts number of documents in each window
+	 * @param shards number of shards of the source index
+	 * @param scratchIndex name of the scratch index
+	 */
+	private void calibrate(final List<TimeWindow> windows,
+			final Map<TimeWindow, Long> windowCounts, final int shards,
+			final String scratchIndex) {
+		TimeWindow sample = null;
+		for (TimeWindow window : windows) {
+			if (windowCounts.get(window) > 0) {
+				sample = window;
+				break;
+			}
+		}
+
+		if (sample == null) {
+			LOG.error("Cannot calibrate - no documents to copy.");
+			return;
+		}
+
+		// trials write to the first destination host only
+		final String scratchHost = this.dstHost != null ? StringUtils.split(
+				this.dstHost, ",")[0] : null;
+
+		Calibrator calibrator = new Calibrator(
+				new Calibrator.ReindexerFactory() {
+					@Override
+					public AbstractReindexer create(final int batchSize,
+							final String scratchIndex) {
+						return createReindexer(batchSize, scratchHost,
+								scratchIndex);
+					}
+				}, scratchIndex, sample, windowCounts.get(sample), shards,
+				this.calibrateDocuments);
+
+		calibrator.setRepeats(this.calibrateRepeats);
+		calibrator.run(this.calibrateBatchSizes, this.calibrateConcurrencies);
+	}
+
+	/**
+	 * Instantiates transformers given by their class names.
+	 *
+	 * @return the transformers
+	 */
+	private List<DocumentTransformer> createTransformers() {
+		List<DocumentTransformer> instances = new ArrayList<DocumentTransformer>();
+		for (String className : this.transformers) {
+			try {
+				instances.add(Class.forName(className)
+						.asSubclass(DocumentTransformer.class).newInstance());
+				LOG.info("Using transformer {}", className);
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalArgumentException("Cannot create transformer "
+						+ className, e);
+			}
+		}
+		return instances;
+	}
+
+	/**
+	 * Creates lease store when distributed mode is enabled.
+	 *
+	 * @return the lease store, null when running alone
+	 */
+	private LeaseStore createLeaseStore() {
+		String job = StringUtils.defaultIfBlank(this.jobId, this.index + "_"
+				+ this.type);
+
+		if (this.leaseDir != null) {
+			return new FileLeaseStore(this.leaseDir, job);
+		}
+
+		if (this.leaseIndex != null) {
+			Client client;
+			if (this.leaseHost != null) {
+				String[] hosts = StringUtils.split(this.leaseHost, ",");
+				client = new ClientManager(this.clusterName, hosts).getClient();
+			} else if (this.dstHost != null) {
+				// src hosts are HTTP addresses between clusters, lease index is accessed through transport client
+				throw new IllegalArgumentException(
+						"Lease host is required with lease index between clusters.");
+			} else {
+				client = getClientManager().getClient();
+			}
+			return new IndexLeaseStore(client, this.leaseIndex, job);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns client manager connected to src hosts.
+	 *
+	 * @return the client manager
+	 */
+	private ClientManager getClientManager() {
+		if (this.clientManager == null) {
+			String[] hosts = StringUtils.split(this.srcHost, ",");
+			this.clientManager = new ClientManager(this.clusterName, hosts);
+		}
+		return this.clientManager;
+	}
+
 	/**
 	 * Main method run application and parse the args.
 	 * 
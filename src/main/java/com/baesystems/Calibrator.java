@@ -0,0 +1,245 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Benchmarks batch size and bulk concurrency before a long run.
+ * <p>
+ * Every combination is tried by a short copy of a sample window into a scratch index. The scratch index is created
+ * before and deleted after each trial, outside of the measured time. Every trial copies enough documents for
+ * {@link #BULK_REQUESTS} bulk requests of each bulk thread, as a scroll page holds batch size documents from each
+ * shard. A discarded warm-up trial reads the sample into caches first, then all combinations are tried in several
+ * rounds, each in random order, so no combination gains from running late. Configuration with the best median
+ * throughput within acceptable error rate is reported.
+ */
+public class Calibrator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Calibrator.class);
+
+    // trials failing more documents are not considered as the best configuration
+    private static final double MAX_ERROR_RATE = 0.01;
+
+    // bulk requests of every bulk thread in one trial, fewer hide the effect of concurrency
+    static final int BULK_REQUESTS = 10;
+
+    /**
+     * Creates reindexer for one trial.
+     */
+    public interface ReindexerFactory {
+        AbstractReindexer create(int batchSize, String scratchIndex);
+    }
+
+    /**
+     * Result of one trial.
+     */
+    public static class Trial {
+        private final int batchSize;
+        private final int concurrency;
+        private final long documents;
+        private final long errors;
+        private final long time;
+
+        Trial(final int batchSize, final int concurrency, final long documents, final long errors, final long time) {
+            this.batchSize = batchSize;
+            this.concurrency = concurrency;
+            this.documents = documents;
+            this.errors = errors;
+            this.time = Math.max(1, time);
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        public long getDocumentsPerSecond() {
+            return documents * 1000 / time;
+        }
+
+        public double getErrorRate() {
+            long total = documents + errors;
+            return total == 0 ? 0 : (double) errors / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("batch size %5d, concurrency %2d: %7d docs/s, %5.2f%% errors", batchSize, concurrency,
+                    getDocumentsPerSecond(), getErrorRate() * 100);
+        }
+    }
+
+    private final ReindexerFactory factory;
+    private final String scratchIndex;
+    private final TimeWindow window;
+    private final long windowDocuments;
+    private final int shards;
+    private final long documentLimit;
+    private int repeats = 3;
+
+    /**
+     * Instantiates a new calibrator.
+     *
+     * @param factory the reindexer factory
+     * @param scratchIndex name of the scratch index, it must not exist
+     * @param window the sample window
+     * @param windowDocuments number of documents in the sample window
+     * @param shards number of shards of the source index
+     * @param documentLimit minimum number of documents copied by one trial, if the window has enough of them
+     */
+    public Calibrator(final ReindexerFactory factory, final String scratchIndex, final TimeWindow window,
+            final long windowDocuments, final int shards, final long documentLimit) {
+        this.factory = factory;
+        this.scratchIndex = scratchIndex;
+        this.window = window;
+        this.windowDocuments = windowDocuments;
+        this.shards = Math.max(1, shards);
+        this.documentLimit = documentLimit;
+    }
+
+    /**
+     * Sets number of trials of every combination, median of them is compared.
+     *
+     * @param repeats the repeats
+     */
+    public void setRepeats(final int repeats) {
+        this.repeats = Math.max(1, repeats);
+    }
+
+    /**
+     * Runs trials of every combination and reports the best one.
+     *
+     * @param batchSizes the batch sizes
+     * @param concurrencies the bulk concurrencies
+     * @return the median trial of the best combination, null if no trial copied any document
+     */
+    public Trial run(final List<Integer> batchSizes, final List<Integer> concurrencies) {
+        LOG.info("Calibrating on window {} with {} documents, {} shards, {} trials of each combination", this.window,
+                this.windowDocuments, this.shards, this.repeats);
+
+        Trial warmUp = runTrial(batchSizes.get(0), concurrencies.get(0));
+        LOG.info("Warm-up trial {} - discarded", warmUp);
+
+        List<int[]> combinations = new ArrayList<int[]>();
+        Map<String, List<Trial>> trials = new LinkedHashMap<String, List<Trial>>();
+        for (int batchSize : batchSizes) {
+            for (int concurrency : concurrencies) {
+                combinations.add(new int[] { batchSize, concurrency });
+                trials.put(batchSize + "/" + concurrency, new ArrayList<Trial>());
+
+                long limit = getTrialLimit(batchSize, concurrency);
+                if (limit > this.windowDocuments) {
+                    LOG.warn("Sample window has fewer than {} documents needed by batch size {} and concurrency {}, "
+                            + "its throughput is underestimated", limit, batchSize, concurrency);
+                }
+            }
+        }
+
+        Random random = new Random();
+        for (int round = 1; round <= this.repeats; round++) {
+            Collections.shuffle(combinations, random);
+            for (int[] combination : combinations) {
+                Trial trial = runTrial(combination[0], combination[1]);
+                LOG.info("Round {} trial {}", round, trial);
+                trials.get(combination[0] + "/" + combination[1]).add(trial);
+            }
+        }
+
+        Trial best = null;
+        for (List<Trial> combinationTrials : trials.values()) {
+            Trial trial = median(combinationTrials);
+            LOG.info("Median trial {}", trial);
+
+            if (trial.getDocumentsPerSecond() > 0 && isBetter(trial, best)) {
+                best = trial;
+            }
+        }
+
+        if (best == null) {
+            LOG.error("Calibration failed - no documents copied.");
+        } else {
+            LOG.info("Best configuration: --batch-size {} --bulk-concurrency {} ({} docs/s)", best.getBatchSize(),
+                    best.getConcurrency(), best.getDocumentsPerSecond());
+        }
+        return best;
+    }
+
+    /**
+     * Returns number of documents copied by trial of the combination.
+     *
+     * @param batchSize the batch size
+     * @param concurrency the bulk concurrency
+     * @return the document limit
+     */
+    long getTrialLimit(final int batchSize, final int concurrency) {
+        return Math.max(this.documentLimit, (long) BULK_REQUESTS * batchSize * this.shards * concurrency);
+    }
+
+    private Trial runTrial(final int batchSize, final int concurrency) {
+        AbstractReindexer reindexer = this.factory.create(batchSize, this.scratchIndex);
+        reindexer.setBulkConcurrency(concurrency);
+        reindexer.setDocumentLimit(getTrialLimit(batchSize, concurrency));
+
+        try {
+            reindexer.initIndices(this.window.getFrom());
+            long start = System.currentTimeMillis();
+            try {
+                reindexer.reindex(this.window.getFrom(), this.window.getTo());
+            } catch (RuntimeException e) {
+                // failed documents are counted in the error rate of the trial
+                LOG.warn("Trial with batch size {} and concurrency {} failed: {}", batchSize, concurrency,
+                        e.getMessage());
+            }
+            long time = System.currentTimeMillis() - start;
+
+            return new Trial(batchSize, concurrency, reindexer.getWrittenDocuments(), reindexer.getFailedDocuments(),
+                    time);
+        } finally {
+            reindexer.close();
+            reindexer.deleteCreatedIndices();
+        }
+    }
+
+    private static Trial median(final List<Trial> trials) {
+        List<Trial> sorted = new ArrayList<Trial>(trials);
+        Collections.sort(sorted, new Comparator<Trial>() {
+            @Override
+            public int compare(final Trial first, final Trial second) {
+                return Long.compare(first.getDocumentsPerSecond(), second.getDocumentsPerSecond());
+            }
+        });
+        return sorted.get((sorted.size() - 1) / 2);
+    }
+
+    private boolean isBetter(final Trial trial, final Trial best) {
+        if (best == null) {
+            return true;
+        }
+
+        boolean acceptable = trial.getErrorRate() <= MAX_ERROR_RATE;
+        boolean bestAcceptable = best.getErrorRate() <= MAX_ERROR_RATE;
+        if (acceptable != bestAcceptable) {
+            return acceptable;
+        }
+        if (!acceptable) {
+            return trial.getErrorRate() < best.getErrorRate();
+        }
+        return trial.getDocumentsPerSecond() > best.getDocumentsPerSecond();
+    }
+}
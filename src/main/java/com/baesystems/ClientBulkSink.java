@@ -0,0 +1,194 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.indices.IndexAlreadyExistsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sink writing documents into index of the same cluster through Elasticsearch client.
+ */
+public class ClientBulkSink implements DocumentSink {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClientBulkSink.class);
+
+    private static final String MAPPING_DEFAULT_TYPE = "_default_";
+
+    private final Client client;
+    private final String index;
+    private final String type;
+    private final IndexPattern newIndexName;
+    private final Set<String> initialisedIndices = new HashSet<String>();
+    private final Set<String> createdIndices = new HashSet<String>();
+
+    /**
+     * Instantiates a new client bulk sink.
+     *
+     * @param client Elasticsearch client
+     * @param index Elasticsearch source index, its settings and mappings are copied to new indices
+     * @param type document type
+     * @param newIndexName destination index name, may contain date pattern (see {@link IndexPattern})
+     */
+    public ClientBulkSink(final Client client, final String index, final String type, final String newIndexName) {
+        this.client = client;
+        this.index = index;
+        this.type = type;
+        this.newIndexName = new IndexPattern(newIndexName);
+    }
+
+    @Override
+    public String getName() {
+        return this.newIndexName.toString();
+    }
+
+    @Override
+    public String getCluster() {
+        return SOURCE_CLUSTER;
+    }
+
+    @Override
+    public int write(final List<Document> batch) {
+        BulkRequestBuilder bulkRequest = this.client.prepareBulk();
+
+        for (Document document : batch) {
+            IndexRequestBuilder indexBuilder = this.client.prepareIndex().setIndex(resolveIndex(document.getDate()))
+                    .setType(document.getType()).setId(document.getId());
+
+            // pass raw source through, parsing it into map and back is pure overhead
+            BytesReference source = document.getSourceRef();
+            if (source != null) {
+                indexBuilder.setSource(source).setContentType(XContentFactory.xContentType(source));
+            } else {
+                indexBuilder.setSource(document.getSourceAsMap());
+            }
+
+            if (document.getParent() != null) {
+                indexBuilder.setParent(document.getParent());
+            }
+            if (document.getTimestamp() != null) {
+                indexBuilder.setTimestamp(document.getTimestamp());
+            }
+
+            bulkRequest.add(indexBuilder);
+        }
+
+        BulkResponse bulkResponse = bulkRequest.get();
+
+        int failed = 0;
+        if (bulkResponse.hasFailures()) {
+            LOG.error(bulkResponse.buildFailureMessage());
+            LOG.error("Problem with inserting data.");
+
+            for (BulkItemResponse item : bulkResponse) {
+                if (item.isFailed()) {
+                    failed++;
+                }
+            }
+        }
+
+        LOG.debug("This batch inserted {} documents into {}.", batch.size() - failed, this.newIndexName);
+        return failed;
+    }
+
+    @Override
+    public void initIndex(final Object date) {
+        resolveIndex(date);
+    }
+
+    @Override
+    public synchronized void deleteCreatedIndices() {
+        for (String name : this.createdIndices) {
+            this.client.admin().indices().prepareDelete(name).get();
+            this.initialisedIndices.remove(name);
+            LOG.info("Deleted index {}", name);
+        }
+        this.createdIndices.clear();
+    }
+
+    /**
+     * Returns destination index of document with given date. Index is created when it is used for the first time.
+     *
+     * @param date the document date
+     * @return the index name
+     */
+    private synchronized String resolveIndex(final Object date) {
+        String name = this.newIndexName.resolve(date);
+        if (!this.initialisedIndices.contains(name)) {
+            initIndex(name);
+            this.initialisedIndices.add(name);
+        }
+        return name;
+    }
+
+    /**
+     * Create index if it doesn't already exist, and copy certain index settings and mappings from source index.
+     * <p>
+     * Settings include number of replicas and number of shards, along with the analyzers. Mappings include the
+     * default mapping and mapping of the re-indexed type.
+     *
+     * @param name the index name
+     */
+    private void initIndex(final String name) {
+        if (this.client.admin().indices().prepareExists(name).get().isExists()) {
+            LOG.info("Index {} already exists, not copying settings / mappings", name);
+            return;
+        }
+
+        LOG.info("Index {} doesn't exist, copying settings / mappings from {}", name, this.index);
+
+        Settings source = this.client.admin().indices().prepareGetSettings(this.index).get().getIndexToSettings()
+                .valuesIt().next();
+
+        ImmutableSettings.Builder settings = ImmutableSettings.settingsBuilder();
+        for (Map.Entry<String, String> entry : source.getAsMap().entrySet()) {
+            if (entry.getKey().equals("index.number_of_shards") || entry.getKey().equals("index.number_of_replicas")
+                    || entry.getKey().startsWith("index.analysis.")) {
+                settings.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        CreateIndexRequestBuilder createBuilder = this.client.admin().indices().prepareCreate(name).setSettings(settings);
+
+        ImmutableOpenMap<String, MappingMetaData> mappings = this.client.admin().indices().prepareGetMappings(this.index)
+                .setTypes(MAPPING_DEFAULT_TYPE, this.type).get().getMappings().valuesIt().next();
+        try {
+            for (String mappingType : new String[] { MAPPING_DEFAULT_TYPE, this.type }) {
+                if (mappings.containsKey(mappingType)) {
+                    createBuilder.addMapping(mappingType, mappings.get(mappingType).source().string());
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read mapping of " + this.index, e);
+        }
+
+        try {
+            createBuilder.get();
+            this.createdIndices.add(name);
+            LOG.info("Created index {}", name);
+        } catch (IndexAlreadyExistsException e) {
+            LOG.info("Index {} created by another process", name);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.action.admin.cluster.node.stats.NodeStats;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.monitor.jvm.JvmStats;
+import org.elasticsearch.threadpool.ThreadPoolStats;
+
+/**
+ * Reads node stats through Elasticsearch client.
+ */
+public class ClientStatsProbe implements NodeStatsProbe {
+
+    private final Client client;
+    private final String name;
+
+    /**
+     * Instantiates a new client stats probe.
+     *
+     * @param client Elasticsearch client
+     * @param name name of the cluster used in logs
+     */
+    public ClientStatsProbe(final Client client, final String name) {
+        this.client = client;
+        this.name = name;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public List<NodeLoad> sample() {
+        NodeStats[] nodes = this.client.admin().cluster().prepareNodesStats().clear().setJvm(true)
+                .setThreadPool(true).get().getNodes();
+
+        List<NodeLoad> loads = new ArrayList<NodeLoad>(nodes.length);
+        for (NodeStats stats : nodes) {
+            NodeLoad load = new NodeLoad(stats.getNode().getName());
+
+            for (ThreadPoolStats.Stats pool : stats.getThreadPool()) {
+                load.setThreadPool(pool.getName(), pool.getQueue(), pool.getRejected());
+            }
+
+            load.setHeapUsedPercent(stats.getJvm().getMem().heapUsedPercent());
+            long gcTime = 0;
+            for (JvmStats.GarbageCollector collector : stats.getJvm().getGc()) {
+                gcTime += collector.getCollectionTime().millis();
+            }
+            load.setGcTime(gcTime);
+
+            loads.add(load);
+        }
+        return loads;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls node stats of source and destination clusters in background and sets pace of the loops loading them.
+ * <p>
+ * Every watched thread pool queue, heap usage and share of time spent in GC is compared with its threshold. Loop is
+ * paused when any of them reaches the threshold or when the pool rejected a task since the last poll, slowed down
+ * when queue or GC time is above {@link #SLOW_RATIO} of the threshold and runs at normal pace otherwise. Heap usage
+ * only pauses, as heap of a healthy node sits well above three quarters of any sensible threshold until old
+ * generation is collected.
+ */
+public class ClusterHealthMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterHealthMonitor.class);
+
+    // share of threshold where the loop starts slowing down
+    private static final double SLOW_RATIO = 0.75;
+
+    private final long interval;
+    private final long maxQueue;
+    private final int maxHeapPercent;
+    private final int maxGcPercent;
+    private final List<Watch> watches = new ArrayList<Watch>();
+    private ScheduledExecutorService executor;
+
+    /**
+     * Instantiates a new cluster health monitor.
+     *
+     * @param interval polling interval in milliseconds
+     * @param maxQueue maximum number of queued tasks in a watched thread pool of any node
+     * @param maxHeapPercent maximum heap usage of any node in percent
+     * @param maxGcPercent maximum share of time any node spends in GC in percent
+     */
+    public ClusterHealthMonitor(final long interval, final long maxQueue, final int maxHeapPercent,
+            final int maxGcPercent) {
+        this.interval = interval;
+        this.maxQueue = maxQueue;
+        this.maxHeapPercent = maxHeapPercent;
+        this.maxGcPercent = maxGcPercent;
+    }
+
+    /**
+     * Adds cluster whose health sets pace of a loop. Has to be called before the monitor is started.
+     *
+     * @param probe node stats of the cluster
+     * @param pacer pacer of the loop
+     * @param pools thread pools loaded by the loop
+     */
+    public void watch(final NodeStatsProbe probe, final Pacer pacer, final String... pools) {
+        this.watches.add(new Watch(probe, pacer, pools));
+    }
+
+    /**
+     * Starts polling.
+     */
+    public synchronized void start() {
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "health-monitor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        this.executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (Watch watch : ClusterHealthMonitor.this.watches) {
+                    poll(watch);
+                }
+            }
+        }, 0, this.interval, TimeUnit.MILLISECONDS);
+
+        LOG.info("Monitoring health of {} clusters every {} ms", this.watches.size(), this.interval);
+    }
+
+    /**
+     * Stops polling and resumes all paused loops.
+     */
+    public synchronized void stop() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+        for (Watch watch : this.watches) {
+            watch.pacer.update(watch.probe.getName(), Pacer.Pace.NORMAL, null);
+        }
+    }
+
+    /**
+     * Reads node stats of the watched cluster and updates pace of its loop. Pace is kept when stats can't be read.
+     *
+     * @param watch the watch
+     */
+    void poll(final Watch watch) {
+        List<NodeLoad> loads;
+        try {
+            loads = watch.probe.sample();
+        } catch (Exception e) {
+            LOG.warn("Cannot read node stats of " + watch.probe.getName(), e);
+            return;
+        }
+        long now = System.currentTimeMillis();
+
+        double worst = 0;
+        String reason = null;
+        for (NodeLoad load : loads) {
+            for (String pool : watch.pools) {
+                String key = load.getNode() + "/" + pool;
+
+                Long previous = watch.rejections.put(key, load.getRejected(pool));
+                if (previous != null && load.getRejected(pool) > previous) {
+                    worst = Double.MAX_VALUE;
+                    reason = String.format("%d tasks rejected by %s thread pool of node %s",
+                            load.getRejected(pool) - previous, pool, load.getNode());
+                }
+
+                double queue = (double) load.getQueue(pool) / this.maxQueue;
+                if (queue > worst) {
+                    worst = queue;
+                    reason = String.format("%d tasks queued in %s thread pool of node %s", load.getQueue(pool), pool,
+                            load.getNode());
+                }
+            }
+
+            if (load.getHeapUsedPercent() >= this.maxHeapPercent && worst < 1) {
+                worst = 1;
+                reason = String.format("%d%% heap used on node %s", load.getHeapUsedPercent(), load.getNode());
+            }
+
+            Long previous = watch.gcTimes.put(load.getNode(), load.getGcTime());
+            if (previous != null && now > watch.time) {
+                long gcPercent = (load.getGcTime() - previous) * 100 / (now - watch.time);
+                double gc = (double) gcPercent / this.maxGcPercent;
+                if (gc > worst) {
+                    worst = gc;
+                    reason = String.format("%d%% time spent in GC on node %s", gcPercent, load.getNode());
+                }
+            }
+        }
+        watch.time = now;
+
+        Pacer.Pace pace = Pacer.Pace.NORMAL;
+        if (worst >= 1) {
+            pace = Pacer.Pace.PAUSED;
+        } else if (worst >= SLOW_RATIO) {
+            pace = Pacer.Pace.SLOW;
+        }
+        watch.pacer.update(watch.probe.getName(), pace, reason);
+    }
+
+    /**
+     * Cluster watched for one loop, with counters from the previous poll.
+     */
+    static class Watch {
+        private final NodeStatsProbe probe;
+        private final Pacer pacer;
+        private final List<String> pools;
+        private final Map<String, Long> rejections = new HashMap<String, Long>();
+        private final Map<String, Long> gcTimes = new HashMap<String, Long>();
+        private long time;
+
+        Watch(final NodeStatsProbe probe, final Pacer pacer, final String... pools) {
+            this.probe = probe;
+            this.pacer = pacer;
+            this.pools = Arrays.asList(pools);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.List;
+
+import org.elasticsearch.common.joda.FormatDateTimeFormatter;
+import org.elasticsearch.common.joda.Joda;
+
+/**
+ * Parses values of a date field into epoch millis the same way Elasticsearch does, using format from the field
+ * mapping.
+ * <p>
+ * String is parsed with the mapping format first and read as epoch millis only when the format doesn't match, so
+ * 'basic_date' value 20150725 is 25th July 2015, not 20 seconds after epoch.
+ */
+public class DateFieldFormat {
+
+    // format of date fields without explicit format in mapping
+    static final String DEFAULT_FORMAT = "dateOptionalTime";
+
+    private final FormatDateTimeFormatter formatter;
+
+    /**
+     * Instantiates a new date field format.
+     *
+     * @param format format from the field mapping, e.g. 'basic_date' or 'yyyy/MM/dd HH:mm:ss||yyyy/MM/dd', null for
+     *            the default format
+     */
+    public DateFieldFormat(final String format) {
+        this.formatter = Joda.forPattern(format == null ? DEFAULT_FORMAT : format);
+    }
+
+    /**
+     * Parses value of the date field.
+     *
+     * @param value value read from source or from fields of the hit, first value is used when field has several
+     * @return the epoch millis
+     */
+    public long parse(final Object value) {
+        Object date = value;
+        if (date instanceof List && !((List<?>) date).isEmpty()) {
+            date = ((List<?>) date).get(0);
+        }
+
+        if (date instanceof Number) {
+            return ((Number) date).longValue();
+        }
+
+        if (date != null) {
+            String text = date.toString();
+            try {
+                return this.formatter.parser().parseMillis(text);
+            } catch (RuntimeException e) {
+                if (text.matches("-?\\d+")) {
+                    return Long.parseLong(text);
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("Cannot parse date '" + value + "' with format " + this.formatter.format());
+    }
+
+    @Override
+    public String toString() {
+        return this.formatter.format();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.Map;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+
+/**
+ * Document read from source index on its way to the destination sinks.
+ * <p>
+ * Source is kept either as raw bytes, which are passed through to the destination as they are, or as a map. Bytes
+ * are parsed only when the map is asked for.
+ */
+public class Document {
+
+    private final String id;
+    private final String type;
+    private String parent;
+    private String timestamp;
+    private Object date;
+    private BytesReference source;
+    private Map<String, Object> sourceMap;
+
+    /**
+     * Instantiates a new document.
+     *
+     * @param id the id
+     * @param type the type
+     */
+    public Document(final String id, final String type) {
+        this.id = id;
+        this.type = type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getParent() {
+        return parent;
+    }
+
+    public void setParent(final String parent) {
+        this.parent = parent;
+    }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(final String timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Returns value of the re-index date field, used for routing into time partitioned indices.
+     *
+     * @return the date value, null if not known
+     */
+    public Object getDate() {
+        return date;
+    }
+
+    public void setDate(final Object date) {
+        this.date = date;
+    }
+
+    /**
+     * Returns raw source.
+     *
+     * @return the source bytes, null if the source has been parsed into map
+     */
+    public BytesReference getSourceRef() {
+        return source;
+    }
+
+    public void setSource(final BytesReference source) {
+        this.source = source;
+        this.sourceMap = null;
+    }
+
+    /**
+     * Returns source as map. Raw source is parsed and dropped, so changes of the map are what gets written.
+     *
+     * @return the source map
+     */
+    public Map<String, Object> getSourceAsMap() {
+        if (sourceMap == null && source != null) {
+            sourceMap = XContentHelper.convertToMap(source, true).v2();
+            source = null;
+        }
+        return sourceMap;
+    }
+
+    public void setSource(final Map<String, Object> source) {
+        this.sourceMap = source;
+        this.source = null;
+    }
+}
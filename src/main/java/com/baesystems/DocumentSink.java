@@ -0,0 +1,55 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.List;
+
+/**
+ * Destination of re-indexed documents. Implementations have to be thread safe, as batches can be written
+ * concurrently.
+ */
+public interface DocumentSink {
+
+    /**
+     * Cluster of sinks writing into the source cluster.
+     */
+    String SOURCE_CLUSTER = "source";
+
+    /**
+     * Returns name of the sink used in logs.
+     *
+     * @return the name
+     */
+    String getName();
+
+    /**
+     * Returns address of the cluster the sink writes to. Sinks of one cluster are paced by health of that cluster.
+     *
+     * @return the cluster address, {@link #SOURCE_CLUSTER} within the source cluster
+     */
+    String getCluster();
+
+    /**
+     * Writes batch of documents in one bulk request.
+     *
+     * @param batch the documents
+     * @return number of documents which failed
+     */
+    int write(List<Document> batch);
+
+    /**
+     * Creates destination index of documents with given date, unless it exists already. Indices are otherwise
+     * created by the first write into them.
+     *
+     * @param date document date - epoch millis, ISO date string or date, not used if index name doesn't depend on it
+     */
+    void initIndex(Object date);
+
+    /**
+     * Deletes indices which were created by this sink. Used to clean scratch destinations up.
+     */
+    void deleteCreatedIndices();
+}
@@ -0,0 +1,24 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+/**
+ * Changes documents on their way from source index to destination, e.g. renames, converts, drops or derives fields.
+ * <p>
+ * Implementations have to be thread safe, as documents are transformed concurrently. Implementations used from command
+ * line need public no-argument constructor.
+ */
+public interface DocumentTransformer {
+
+    /**
+     * Transforms the document. Source is parsed only when {@link Document#getSourceAsMap()} is called, changes of the
+     * returned map are written to destination.
+     *
+     * @param document the document
+     * @return the transformed document, null to drop it
+     */
+    Document transform(Document document);
+}
@@ -0,0 +1,313 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tees batches read from source index to several sinks.
+ * <p>
+ * Every sink has its own bounded queue of batches and its own bulk threads, paced by health of its own cluster.
+ * Reading blocks only when queue of the slowest sink is full, while faster sinks keep writing batches they already
+ * have. Failures are counted per sink
+ * and never stop the other sinks, but {@link #flush()} fails when any sink lost a whole batch or failed too many
+ * documents since the previous flush, so the window isn't reported as done.
+ */
+public class FanOutWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FanOutWriter.class);
+
+    private final List<SinkWorker> workers = new ArrayList<SinkWorker>();
+    private final double maxErrorRate;
+
+    /**
+     * Instantiates a new fan out writer and starts bulk threads of all sinks.
+     *
+     * @param sinks the sinks
+     * @param queueSize number of batches waiting for each sink
+     * @param concurrency number of bulk threads of each sink
+     * @param pacers pacers waited on before every bulk request, keyed by cluster of the sinks (see
+     *            {@link DocumentSink#getCluster()}), null for no throttling
+     * @param maxErrorRate share of failed documents of one sink between flushes which fails the flush
+     */
+    public FanOutWriter(final List<? extends DocumentSink> sinks, final int queueSize, final int concurrency,
+            final Map<String, Pacer> pacers, final double maxErrorRate) {
+        this.maxErrorRate = maxErrorRate;
+        for (DocumentSink sink : sinks) {
+            Pacer pacer = pacers == null ? null : pacers.get(sink.getCluster());
+            this.workers.add(new SinkWorker(sink, queueSize, concurrency, pacer));
+        }
+    }
+
+    /**
+     * Queues batch for all sinks. Blocks while any sink has its queue full.
+     *
+     * @param batch the documents
+     */
+    public void write(final List<Document> batch) {
+        try {
+            for (SinkWorker worker : this.workers) {
+                worker.submit(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing documents.", e);
+        }
+    }
+
+    /**
+     * Waits until all queued batches are written by all sinks and checks failures of every sink since the previous
+     * flush.
+     *
+     * @throws IllegalStateException if any sink lost a whole batch or failed more than maximum error rate of
+     *             documents
+     */
+    public void flush() {
+        try {
+            for (SinkWorker worker : this.workers) {
+                worker.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for documents to be written.", e);
+        }
+
+        List<String> failures = new ArrayList<String>();
+        for (SinkWorker worker : this.workers) {
+            long lost = worker.lostBatches.getAndSet(0);
+            long documents = worker.windowDocuments.getAndSet(0);
+            long errors = worker.windowErrors.getAndSet(0);
+
+            if (lost > 0) {
+                failures.add(String.format("sink %s lost %d batches", worker.sink.getName(), lost));
+            } else if (errors > 0 && (double) errors / (documents + errors) > this.maxErrorRate) {
+                failures.add(String.format("sink %s failed %d of %d documents", worker.sink.getName(), errors,
+                        documents + errors));
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("Writing documents failed - " + StringUtils.join(failures, ", "));
+        }
+    }
+
+    /**
+     * Logs number of written and failed documents of every sink.
+     */
+    public void report() {
+        for (SinkWorker worker : this.workers) {
+            LOG.info("Sink {} inserted {} documents in total.", worker.sink.getName(), worker.documents.get());
+            if (worker.errors.get() > 0) {
+                LOG.error("Sink {} failed {} documents in total.", worker.sink.getName(), worker.errors.get());
+            }
+        }
+    }
+
+    /**
+     * Returns how long reading can be blocked by the slowest sink: its recent bulk latency, or time of its oldest
+     * running bulk request if longer, times number of batches which can be queued ahead of a new one per bulk thread.
+     *
+     * @param batchesAhead batches waiting for the writer before they are queued for sinks
+     * @return the time in milliseconds
+     */
+    public long getBacklogTime(final int batchesAhead) {
+        long backlog = 0;
+        for (SinkWorker worker : this.workers) {
+            backlog = Math.max(backlog, worker.getLatency()
+                    * (batchesAhead + worker.queueSize + worker.concurrency) / worker.concurrency);
+        }
+        return backlog;
+    }
+
+    /**
+     * Checks whether every sink has completed a bulk request, so its latency is known.
+     *
+     * @return true, if latency of all sinks is known
+     */
+    public boolean hasLatency() {
+        for (SinkWorker worker : this.workers) {
+            if (!worker.hasLatency()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns number of documents written, summed over all sinks.
+     *
+     * @return the documents
+     */
+    public long getDocuments() {
+        long documents = 0;
+        for (SinkWorker worker : this.workers) {
+            documents += worker.documents.get();
+        }
+        return documents;
+    }
+
+    /**
+     * Returns number of documents which failed, summed over all sinks.
+     *
+     * @return the errors
+     */
+    public long getErrors() {
+        long errors = 0;
+        for (SinkWorker worker : this.workers) {
+            errors += worker.errors.get();
+        }
+        return errors;
+    }
+
+    /**
+     * Stops bulk threads. Batches which are not written yet are dropped.
+     */
+    public void close() {
+        for (SinkWorker worker : this.workers) {
+            worker.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Queue and bulk threads of one sink.
+     */
+    private static class SinkWorker implements Runnable {
+
+        // recent bulk latency decays with every faster request, as page time in ScrollKeepAlive
+        private static final double DECAY = 0.9;
+
+        private final DocumentSink sink;
+        private final int queueSize;
+        private final int concurrency;
+        private final BlockingQueue<List<Document>> queue;
+        private final ExecutorService executor;
+        private final Pacer pacer;
+        private final AtomicLong documents = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong windowDocuments = new AtomicLong();
+        private final AtomicLong windowErrors = new AtomicLong();
+        private final AtomicLong lostBatches = new AtomicLong();
+        private final List<Long> running = new ArrayList<Long>();
+        private int pending;
+        private double slowestBulk;
+        private boolean completed;
+
+        SinkWorker(final DocumentSink sink, final int queueSize, final int concurrency, final Pacer pacer) {
+            this.sink = sink;
+            this.pacer = pacer;
+            this.queueSize = queueSize;
+            this.concurrency = concurrency;
+            this.queue = new ArrayBlockingQueue<List<Document>>(queueSize);
+            this.executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+                private final AtomicInteger number = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "bulk[" + sink.getName() + "]-" + number.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+            for (int i = 0; i < concurrency; i++) {
+                this.executor.execute(this);
+            }
+        }
+
+        void submit(final List<Document> batch) throws InterruptedException {
+            synchronized (this) {
+                this.pending++;
+            }
+            this.queue.put(batch);
+        }
+
+        synchronized void await() throws InterruptedException {
+            while (this.pending > 0) {
+                wait();
+            }
+        }
+
+        private synchronized void done() {
+            this.pending--;
+            notifyAll();
+        }
+
+        synchronized long getLatency() {
+            long latency = (long) this.slowestBulk;
+            if (!this.running.isEmpty()) {
+                latency = Math.max(latency, System.currentTimeMillis() - this.running.get(0));
+            }
+            return latency;
+        }
+
+        synchronized boolean hasLatency() {
+            return this.completed;
+        }
+
+        private synchronized long started() {
+            long start = System.currentTimeMillis();
+            this.running.add(start);
+            return start;
+        }
+
+        private synchronized void finished(final long start) {
+            this.running.remove(Long.valueOf(start));
+            this.slowestBulk = Math.max(System.currentTimeMillis() - start, this.slowestBulk * DECAY);
+            this.completed = true;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                List<Document> batch;
+                try {
+                    batch = this.queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                try {
+                    if (this.pacer != null) {
+                        this.pacer.await();
+                    }
+                    int failed = write(batch);
+                    this.documents.addAndGet(batch.size() - failed);
+                    this.errors.addAndGet(failed);
+                    this.windowDocuments.addAndGet(batch.size() - failed);
+                    this.windowErrors.addAndGet(failed);
+                } catch (Exception e) {
+                    LOG.error("Sink " + this.sink.getName() + " failed to write batch of " + batch.size() + " documents", e);
+                    this.errors.addAndGet(batch.size());
+                    this.lostBatches.incrementAndGet();
+                } finally {
+                    done();
+                }
+            }
+        }
+
+        private int write(final List<Document> batch) {
+            long start = started();
+            try {
+                return this.sink.write(batch);
+            } finally {
+                finished(start);
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lease store kept in a directory shared by all workers (e.g. NFS mount).
+ * <p>
+ * Every work unit has a lease file with its owner and expiry time, and a done file once it is finished. All changes
+ * are made under an exclusive lock of the job directory. Expiry is based on the worker clocks, so hosts should be
+ * time synchronised.
+ */
+public class FileLeaseStore implements LeaseStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileLeaseStore.class);
+
+    private static final String LOCK_FILE = ".lock";
+    private static final String LEASE_SUFFIX = ".lease";
+    private static final String DONE_SUFFIX = ".done";
+    private static final String OWNER = "owner";
+    private static final String EXPIRES = "expires";
+
+    private final Path directory;
+
+    /**
+     * Instantiates a new file lease store.
+     *
+     * @param directory the shared directory
+     * @param jobId the job id, each job keeps its leases in own sub-directory
+     */
+    public FileLeaseStore(final String directory, final String jobId) {
+        this.directory = Paths.get(directory, jobId);
+
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot create lease directory.", e);
+        }
+        LOG.info("Using lease directory {}", this.directory);
+    }
+
+    @Override
+    public synchronized boolean acquire(final String unit, final String owner, final long leaseTime) {
+        FileLock lock = lock();
+        try {
+            if (Files.exists(doneFile(unit))) {
+                return false;
+            }
+
+            Properties lease = readLease(unit);
+            long now = System.currentTimeMillis();
+
+            if (lease != null && !owner.equals(lease.getProperty(OWNER))) {
+                if (Long.parseLong(lease.getProperty(EXPIRES)) > now) {
+                    return false;
+                }
+                LOG.info("Taking over expired lease of {} from {}", unit, lease.getProperty(OWNER));
+            }
+
+            writeLease(unit, owner, now + leaseTime);
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot acquire lease of " + unit, e);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    @Override
+    public synchronized boolean renew(final String unit, final String owner, final long leaseTime) {
+        FileLock lock = lock();
+        try {
+            Properties lease = readLease(unit);
+            if (lease == null || !owner.equals(lease.getProperty(OWNER))) {
+                return false;
+            }
+
+            writeLease(unit, owner, System.currentTimeMillis() + leaseTime);
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot renew lease of " + unit, e);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    @Override
+    public synchronized void release(final String unit, final String owner) {
+        FileLock lock = lock();
+        try {
+            Properties lease = readLease(unit);
+            if (lease != null && owner.equals(lease.getProperty(OWNER))) {
+                Files.deleteIfExists(leaseFile(unit));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot release lease of " + unit, e);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    @Override
+    public synchronized void complete(final String unit, final String owner) {
+        FileLock lock = lock();
+        try {
+            Files.write(doneFile(unit), owner.getBytes("UTF-8"));
+            Files.deleteIfExists(leaseFile(unit));
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot complete " + unit, e);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    @Override
+    public boolean isCompleted(final String unit) {
+        return Files.exists(doneFile(unit));
+    }
+
+    private Path leaseFile(final String unit) {
+        return this.directory.resolve(unit + LEASE_SUFFIX);
+    }
+
+    private Path doneFile(final String unit) {
+        return this.directory.resolve(unit + DONE_SUFFIX);
+    }
+
+    private Properties readLease(final String unit) throws IOException {
+        Path file = leaseFile(unit);
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        Properties lease = new Properties();
+        InputStream in = Files.newInputStream(file);
+        try {
+            lease.load(in);
+        } finally {
+            in.close();
+        }
+        return lease;
+    }
+
+    /**
+     * Writes lease into temporary file and moves it in place, so other workers never read partial lease.
+     */
+    private void writeLease(final String unit, final String owner, final long expires) throws IOException {
+        Properties lease = new Properties();
+        lease.setProperty(OWNER, owner);
+        lease.setProperty(EXPIRES, Long.toString(expires));
+
+        Path tmp = this.directory.resolve(unit + LEASE_SUFFIX + "." + owner.hashCode() + ".tmp");
+        OutputStream out = Files.newOutputStream(tmp);
+        try {
+            lease.store(out, null);
+        } finally {
+            out.close();
+        }
+        Files.move(tmp, leaseFile(unit), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private FileLock lock() {
+        try {
+            FileChannel channel = FileChannel.open(this.directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            try {
+                return channel.lock();
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot lock lease directory.", e);
+        }
+    }
+
+    private void unlock(final FileLock lock) {
+        try {
+            lock.release();
+            lock.channel().close();
+        } catch (IOException e) {
+            LOG.warn("Cannot unlock lease directory.", e);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.baesystems
+
+import groovy.json.JsonBuilder
+import groovy.json.JsonOutput
+import groovyx.net.http.ContentType
+import groovyx.net.http.HTTPBuilder
+import groovyx.net.http.Method
+
+import org.apache.http.impl.client.DefaultHttpClient
+import org.apache.http.impl.conn.PoolingClientConnectionManager
+import org.apache.http.util.EntityUtils
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+/**
+ * Sink writing documents into index of another cluster through its REST API.
+ */
+class HttpBulkSink implements DocumentSink {
+	private static final String TIMESTAMP_FIELD = '_timestamp'
+
+	private static final String PARENT_FIELD = '_parent'
+
+	// upper limit of concurrent bulk requests to one destination
+	private static final int MAX_CONNECTIONS = 32
+
+	private static final Logger LOG = LoggerFactory.getLogger(HttpBulkSink.class)
+
+	private final HTTPBuilder srcHttp
+	private final HTTPBuilder dstHttp
+	private final String dstNode
+
+	private final String index
+	private final String type
+	private final IndexPattern destIndex
+	private final Set<String> initialisedIndices = new HashSet<String>()
+	private final Set<String> createdIndices = new HashSet<String>()
+
+	private final JsonBuilder jsonBuilder
+
+	/**
+	 * Instantiates a new HTTP bulk sink.
+	 *
+	 * @param index Elasticsearch source index, its settings and mappings are copied to new indices
+	 * @param type document type
+	 * @param srcNode - Source node address (http://localhost:9200)
+	 * @param dstNode - Destination node address (http://localhost:9201)
+	 * @param destIndex - Destination index name, may contain date pattern (see {@link IndexPattern})
+	 */
+	public HttpBulkSink(final String index, final String type, final String srcNode, final String dstNode, final String destIndex) {
+		this.srcHttp = new HTTPBuilder(srcNode)
+		this.dstHttp = new HTTPBuilder(dstNode)
+		this.dstNode = dstNode
+		this.index = index
+		this.type = type
+		this.destIndex = new IndexPattern(destIndex)
+
+		// bulk requests are sent from several threads
+		PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager()
+		connectionManager.maxTotal = MAX_CONNECTIONS
+		connectionManager.defaultMaxPerRoute = MAX_CONNECTIONS
+		this.dstHttp.client = new DefaultHttpClient(connectionManager)
+
+		this.jsonBuilder = new JsonBuilder()
+	}
+
+	public String getName() {
+		return "$dstNode/$destIndex"
+	}
+
+	public String getCluster() {
+		return dstNode
+	}
+
+	/**
+	 * Pushes batch of documents in one bulk request.
+	 *
+	 * @param batch the documents
+	 * @return number of documents which failed
+	 */
+	public int write(final List<Document> batch) {
+		StringBuilder bulkActions = new StringBuilder(10*1024*1024)
+		batch.each { Document document ->
+			Map action = [ create : [ _index : resolveIndex(document.date), _type : document.type, _id : document.id ]]
+			if (document.parent) {
+				action.create[PARENT_FIELD] = document.parent
+			}
+			if (document.timestamp) {
+				action.create[TIMESTAMP_FIELD] = document.timestamp
+			}
+			bulkActions.append(JsonOutput.toJson(action))
+			bulkActions.append('\n')
+
+			bulkActions.append(JsonOutput.toJson(document.sourceAsMap))
+			bulkActions.append('\n')
+		}
+
+		int batchDocs = 0
+		int batchErrs = 0
+		dstHttp.request( Method.POST, ContentType.JSON ) { dstReq ->
+			uri.path = '_bulk'
+			body = bulkActions.toString()
+
+			response.success = { dstResp, dstJson ->
+				dstJson.items.each { item ->
+					if (item.create.status == 409) {
+						// copied before, e.g. by a worker whose window was taken over
+						LOG.debug('Document {} already exists', item.create._id)
+						batchDocs++
+					} else if (item.create.error) {
+						LOG.error('Error for document:{} : {}', item.create._id, item.create.error)
+						batchErrs++
+					} else {
+						batchDocs++
+					}
+				}
+			}
+
+			response.failure = { dstResp ->
+				LOG.error('Error while pushing current document batch: {}', EntityUtils.toString(dstResp.entity))
+				throw new IOException('Error while pushing current documents')
+			}
+		}
+
+		LOG.info("This batch inserted {} documents into {} and had {} failures.", batchDocs, name, batchErrs)
+		return batchErrs
+	}
+
+	/**
+	 * Creates destination index of documents with given date, unless it exists already.
+	 *
+	 * @param date document date, not used if index name doesn't depend on it
+	 */
+	public void initIndex(final Object date) {
+		resolveIndex(date)
+	}
+
+	/**
+	 * Deletes indices which were created by this sink.
+	 */
+	public synchronized void deleteCreatedIndices() {
+		createdIndices.each { target ->
+			dstHttp.request(Method.DELETE) { req ->
+				uri.path = "$target"
+
+				response.success = { resp ->
+					LOG.info("Deleted index $target")
+				}
+
+				response.failure = { resp ->
+					LOG.error("Cannot delete index $target: {}", EntityUtils.toString(resp.entity))
+				}
+			}
+			initialisedIndices.remove(target)
+		}
+		createdIndices.clear()
+	}
+
+	/**
+	 * Returns destination index of document with given date. Index and its mappings are initialised when it is used for the first time.
+	 *
+	 * @param date the document date
+	 * @return the index name
+	 */
+	private synchronized String resolveIndex(final Object date) {
+		String target = destIndex.resolve(date)
+		if (!initialisedIndices.contains(target)) {
+			createIndex(target)
+			initType(target)
+			initialisedIndices << target
+		}
+		return target
+	}
+
+	/**
+	 * Create index at dest if it doens't already exist, and copy certain index settings from src to dest cluster
+	 * <p>
+	 * Settings include number of replicas and number of shards, along with the analyzers. Default mapping is part of
+	 * the create request, so index created by another process or worker in the meantime is left as it is.
+	 *
+	 * @param target destination index
+	 */
+	private void createIndex(final String target) {
+		LOG.info("checking $target exists in destination cluster")
+
+		boolean exists = true
+		// check index exists at destination, otherwise create it
+		dstHttp.request(Method.HEAD) { headReq ->
+			uri.path = "$target"
+
+			response.success = { headResp ->
+				LOG.info("Index already exists at destination, not copying settings / analyzers")
+			}
+
+			response.'404' = { headResp ->
+				LOG.info("Index doesn't exist at destination, copying settings / analyzers")
+				exists = false
+			}
+		}
+		if (exists) {
+			return
+		}
+
+		Map body = null
+		// create index settings - # of shards & replicas, analyzers
+		srcHttp.request( Method.GET, ContentType.JSON ) { req ->
+			uri.path = "$index/_settings"
+
+			response.success = { resp, json ->
+				jsonBuilder.call(json)
+				LOG.debug("Settings of {}: {}", index, jsonBuilder.toPrettyString())
+
+				body = [
+					settings : [
+						index : [
+							number_of_shards : json[index].settings.index.number_of_shards,
+							number_of_replicas : json[index].settings.index.number_of_replicas,
+							analysis : json[index].settings.index.analysis
+						]
+					]
+				]
+			}
+		}
+
+		// copy over default mapping
+		srcHttp.request( Method.GET, ContentType.JSON ) { req ->
+			uri.path = "$index/_mappings/_default_"
+
+			response.success = { defMappingResp, defMappingJson ->
+				if (defMappingJson[index]) {
+					body.mappings = defMappingJson[index]['mappings']
+				}
+			}
+		}
+
+		// put settings and default mapping to destination cluster
+		dstHttp.request( Method.PUT, ContentType.JSON ) { dstReq ->
+			uri.path = "$target"
+			delegate.body = body
+
+			response.success = { dstResp, dstJson ->
+				createdIndices << target
+				LOG.info("Copied settings and default mapping of $index to $target")
+			}
+
+			response.failure = { dstResp ->
+				String error = EntityUtils.toString(dstResp.entity)
+				if (error.contains('IndexAlreadyExistsException') || error.contains('index_already_exists_exception')) {
+					LOG.info("Index $target created by another process")
+				} else {
+					throw new IOException("Cannot create index $target: $error")
+				}
+			}
+		}
+	}
+
+	/**
+	 * If new index doesn't contain mappings for the configured type, then copy from existing index 
+	 *
+	 * @param target destination index
+	 */
+	private void initType(final String target) {
+		Map mapping = null
+
+		dstHttp.request( Method.GET, ContentType.JSON ) { destMappingReq ->
+			uri.path = "$target/_mapping/$type"
+
+			response.success = { destMappingResp, destMappingJson ->
+				if (!destMappingJson[target]) {
+					srcHttp.request( Method.GET, ContentType.JSON ) { srcMappingReq ->
+						uri.path = "$index/_mapping/$type"
+
+						response.success = { srcMappingResp, srcMappingJson ->
+							mapping = srcMappingJson
+						}
+					}
+				} else {
+				LOG.info("Mapping already exists for $target:$type")
+				}
+			}
+		}
+
+		if (mapping) {
+			// put type mapping to destination cluster
+			dstHttp.request( Method.PUT, ContentType.JSON ) { dstReq ->
+				uri.path = "$target/_mapping/$type"
+				body = mapping[index]['mappings']
+
+				response.success = { dstResp, dstJson ->
+					LOG.info("Copied mapping for $target:$type")
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.baesystems
+
+import groovyx.net.http.ContentType
+import groovyx.net.http.HTTPBuilder
+import groovyx.net.http.Method
+
+/**
+ * Reads node stats through REST API of the cluster.
+ */
+class HttpStatsProbe implements NodeStatsProbe {
+
+	private final HTTPBuilder http
+	private final String node
+
+	/**
+	 * Instantiates a new HTTP stats probe.
+	 *
+	 * @param node - Node address (http://localhost:9200)
+	 */
+	public HttpStatsProbe(final String node) {
+		this.http = new HTTPBuilder(node)
+		this.node = node
+	}
+
+	public String getName() {
+		return node
+	}
+
+	public List<NodeLoad> sample() {
+		List<NodeLoad> loads = []
+
+		http.request( Method.GET, ContentType.JSON ) { req ->
+			uri.path = '/_nodes/stats/jvm,thread_pool'
+
+			response.success = { resp, json ->
+				json.nodes.each { id, stats ->
+					NodeLoad load = new NodeLoad(stats.name ?: id)
+
+					stats.thread_pool.each { pool, poolStats ->
+						load.setThreadPool(pool, poolStats.queue as long, poolStats.rejected as long)
+					}
+
+					load.heapUsedPercent = stats.jvm.mem.heap_used_percent as int
+					load.gcTime = stats.jvm.gc.collectors.values().sum(0) { it.collection_time_in_millis } as long
+
+					loads << load
+				}
+			}
+
+			response.failure = { resp ->
+				throw new IOException("Cannot read node stats of $node: ${resp.statusLine}")
+			}
+		}
+
+		return loads
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.engine.DocumentAlreadyExistsException;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.indices.IndexAlreadyExistsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lease store kept in a coordination index of Elasticsearch cluster.
+ * <p>
+ * Every work unit is one document. Concurrent changes are resolved by document versions, so only one worker wins a
+ * lease. Expiry is based on the worker clocks, so hosts should be time synchronised.
+ */
+public class IndexLeaseStore implements LeaseStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexLeaseStore.class);
+
+    private static final String LEASE_TYPE = "lease";
+    private static final String JOB = "job";
+    private static final String UNIT = "unit";
+    private static final String OWNER = "owner";
+    private static final String EXPIRES = "expires";
+    private static final String COMPLETED = "completed";
+
+    private final Client client;
+    private final String index;
+    private final String jobId;
+
+    /**
+     * Instantiates a new index lease store. The coordination index is created if it doesn't exist.
+     *
+     * @param client Elasticsearch client
+     * @param index the coordination index
+     * @param jobId the job id, it prefixes ids of all lease documents
+     */
+    public IndexLeaseStore(final Client client, final String index, final String jobId) {
+        this.client = client;
+        this.index = index;
+        this.jobId = jobId;
+
+        if (!this.client.admin().indices().prepareExists(index).get().isExists()) {
+            try {
+                this.client.admin().indices().prepareCreate(index).get();
+                LOG.info("Created lease index {}", index);
+            } catch (IndexAlreadyExistsException e) {
+                LOG.debug("Lease index {} created by another worker", index);
+            }
+        }
+    }
+
+    @Override
+    public boolean acquire(final String unit, final String owner, final long leaseTime) {
+        GetResponse lease = get(unit);
+        long now = System.currentTimeMillis();
+
+        if (!lease.isExists()) {
+            try {
+                this.client.prepareIndex(this.index, LEASE_TYPE, id(unit)).setSource(lease(unit, owner, now + leaseTime, false))
+                        .setCreate(true).get();
+                return true;
+            } catch (ElasticsearchException e) {
+                if (isConflict(e)) {
+                    return false;
+                }
+                throw e;
+            }
+        }
+
+        Map<String, Object> source = lease.getSource();
+        if (Boolean.TRUE.equals(source.get(COMPLETED))) {
+            return false;
+        }
+
+        if (!owner.equals(source.get(OWNER))) {
+            if (((Number) source.get(EXPIRES)).longValue() > now) {
+                return false;
+            }
+            LOG.info("Taking over expired lease of {} from {}", unit, source.get(OWNER));
+        }
+
+        return update(unit, lease.getVersion(), lease(unit, owner, now + leaseTime, false));
+    }
+
+    @Override
+    public boolean renew(final String unit, final String owner, final long leaseTime) {
+        GetResponse lease = get(unit);
+        if (!isOwner(lease, owner)) {
+            return false;
+        }
+
+        return update(unit, lease.getVersion(), lease(unit, owner, System.currentTimeMillis() + leaseTime, false));
+    }
+
+    @Override
+    public void release(final String unit, final String owner) {
+        GetResponse lease = get(unit);
+        if (isOwner(lease, owner)) {
+            update(unit, lease.getVersion(), lease(unit, owner, 0, false));
+        }
+    }
+
+    @Override
+    public void complete(final String unit, final String owner) {
+        this.client.prepareIndex(this.index, LEASE_TYPE, id(unit)).setSource(lease(unit, owner, 0, true)).get();
+    }
+
+    @Override
+    public boolean isCompleted(final String unit) {
+        GetResponse lease = get(unit);
+        return lease.isExists() && Boolean.TRUE.equals(lease.getSource().get(COMPLETED));
+    }
+
+    private GetResponse get(final String unit) {
+        return this.client.prepareGet(this.index, LEASE_TYPE, id(unit)).get();
+    }
+
+    /**
+     * Overwrites lease document only if nobody else changed it since it was read.
+     */
+    private boolean update(final String unit, final long version, final Map<String, Object> lease) {
+        try {
+            this.client.prepareIndex(this.index, LEASE_TYPE, id(unit)).setSource(lease).setVersion(version).get();
+            return true;
+        } catch (ElasticsearchException e) {
+            if (isConflict(e)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private boolean isOwner(final GetResponse lease, final String owner) {
+        return lease.isExists() && !Boolean.TRUE.equals(lease.getSource().get(COMPLETED))
+                && owner.equals(lease.getSource().get(OWNER));
+    }
+
+    private boolean isConflict(final ElasticsearchException e) {
+        Throwable cause = ExceptionsHelper.unwrapCause(e);
+        return cause instanceof VersionConflictEngineException || cause instanceof DocumentAlreadyExistsException;
+    }
+
+    private String id(final String unit) {
+        return this.jobId + ":" + unit;
+    }
+
+    private Map<String, Object> lease(final String unit, final String owner, final long expires, final boolean completed) {
+        Map<String, Object> lease = new HashMap<String, Object>();
+        lease.put(JOB, this.jobId);
+        lease.put(UNIT, unit);
+        lease.put(OWNER, owner);
+        lease.put(EXPIRES, expires);
+        lease.put(COMPLETED, completed);
+        return lease;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * Name of destination index, optionally partitioned by time of the document.
+ * <p>
+ * Date format in curly brackets is replaced by the document date in UTC, e.g. 'logs-{yyyy.MM.dd}' routes documents
+ * into daily indices and 'logs-{yyyy.MM}' into monthly ones. Name without brackets is used as it is.
+ */
+public class IndexPattern {
+
+    private static final Pattern DATE_PART = Pattern.compile("\\{([^}]+)\\}");
+
+    private static final DateTimeFormatter DATE_PARSER = ISODateTimeFormat.dateOptionalTimeParser().withZoneUTC();
+
+    private final String pattern;
+    private final boolean partitioned;
+
+    /**
+     * Instantiates a new index pattern.
+     *
+     * @param pattern index name or pattern
+     */
+    public IndexPattern(final String pattern) {
+        this.pattern = pattern;
+        this.partitioned = DATE_PART.matcher(pattern).find();
+    }
+
+    /**
+     * Checks whether the index name depends on document date.
+     *
+     * @return true, if partitioned
+     */
+    public boolean isPartitioned() {
+        return partitioned;
+    }
+
+    /**
+     * Returns index name for document with given date.
+     *
+     * @param date document date - epoch millis, ISO date string or date, not used if not partitioned
+     * @return the index name
+     */
+    public String resolve(final Object date) {
+        if (!this.partitioned) {
+            return this.pattern;
+        }
+
+        if (date == null) {
+            throw new IllegalArgumentException("Document date is missing, cannot resolve index " + this.pattern);
+        }
+
+        DateTime dateTime = toDate(date);
+        Matcher matcher = DATE_PART.matcher(this.pattern);
+        StringBuffer name = new StringBuffer();
+
+        while (matcher.find()) {
+            DateTimeFormatter format = DateTimeFormat.forPattern(matcher.group(1)).withZoneUTC();
+            matcher.appendReplacement(name, Matcher.quoteReplacement(format.print(dateTime)));
+        }
+        matcher.appendTail(name);
+
+        return name.toString();
+    }
+
+    private DateTime toDate(final Object date) {
+        if (date instanceof DateTime) {
+            return (DateTime) date;
+        }
+        if (date instanceof Number) {
+            return new DateTime(((Number) date).longValue(), DateTimeZone.UTC);
+        }
+
+        // reindexers parse dates with format of the field, strings come only from transformers
+        return DATE_PARSER.parseDateTime(date.toString());
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -1,16 +1,23 @@
 package com.baesystems
 
-import groovy.json.JsonBuilder
 import groovy.json.JsonSlurper
 import groovyx.net.http.ContentType
 import groovyx.net.http.HTTPBuilder
 import groovyx.net.http.HttpResponseDecorator
 import groovyx.net.http.Method
 
+import org.apache.http.HttpResponse
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase
+import org.apache.http.entity.StringEntity
+import org.apache.http.impl.client.DefaultHttpClient
+import org.apache.http.impl.conn.PoolingClientConnectionManager
 import org.apache.http.util.EntityUtils
 import org.elasticsearch.index.query.BaseQueryBuilder
 import org.elasticsearch.index.query.FilterBuilders
 import org.elasticsearch.index.query.QueryBuilders
+import org.elasticsearch.search.aggregations.AggregationBuilders
+import org.elasticsearch.search.aggregations.bucket.range.date.DateRangeBuilder
+import org.elasticsearch.search.builder.SearchSourceBuilder
 import org.joda.time.DateTime
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -18,28 +25,29 @@ import org.slf4j.LoggerFactory
 /**
  * Similar to {@link IntraClusterReindexer} but works between clusters - useful when performing an ES upgrade from a pre 1.3 index
  */
-class InterClusterReindexer implements Reindexer {
+class InterClusterReindexer extends AbstractReindexer {
 	private static final String TIMESTAMP_FIELD = '_timestamp'
 
 	private static final String SOURCE_FIELD = '_source'
 
 	private static final String PARENT_FIELD = '_parent'
 
-	// need large timeout for scan, especially for large binary documents
-	private static final String TIMEOUT = '60m'
-
 	private static final Logger LOG = LoggerFactory.getLogger(InterClusterReindexer.class)
 
 	private final HTTPBuilder srcHttp
-	private final HTTPBuilder dstHttp
+	private final String srcNode
+
+	// scrolls are also cleared from shutdown hook, while scroll request may be running
+	private final DefaultHttpClient scrollClient
 
 	private final String index
 	private final String type
 	private final String field
 	private final int batchSize
+	private final boolean partitioned
 
 	private final JsonSlurper jsonSlurper
-	private final JsonBuilder jsonBuilder
+	private final DateFieldFormat dateFormat
 
 	/**
 	 * Instantiates a new reindexer.
@@ -52,15 +60,110 @@ class InterClusterReindexer implements Reindexer {
 	 * @param dstNode - Destination node address (http://localhost:9201)
 	 */
 	public InterClusterReindexer(final String index, final String type, final String field, final int batchSize, final String srcNode, String dstNode) {
+		this(index, type, field, batchSize, srcNode, dstNode, index)
+	}
+
+	/**
+	 * Instantiates a new reindexer writing into different destination index.
+	 *
+	 * @param index Elasticsearch source index
+	 * @param type document type
+	 * @param field the field which is used for re-index
+	 * @param batchSize number of document pulled from ES in batch
+	 * @param srcNode - Source node address (http://localhost:9200)
+	 * @param dstNode - Destination node address (http://localhost:9201)
+	 * @param destIndex - Destination index name, may contain date pattern (see {@link IndexPattern})
+	 */
+	public InterClusterReindexer(final String index, final String type, final String field, final int batchSize, final String srcNode, String dstNode, String destIndex) {
+		this(index, type, field, batchSize, srcNode, [dstNode], [destIndex])
+	}
+
+	/**
+	 * Instantiates a new reindexer writing every document into several destinations - each destination index at each
+	 * destination node.
+	 *
+	 * @param index Elasticsearch source index
+	 * @param type document type
+	 * @param field the field which is used for re-index
+	 * @param batchSize number of document pulled from ES in batch
+	 * @param srcNode - Source node address (http://localhost:9200)
+	 * @param dstNodes - Destination node addresses
+	 * @param destIndices - Destination index names, each may contain date pattern (see {@link IndexPattern})
+	 */
+	public InterClusterReindexer(final String index, final String type, final String field, final int batchSize, final String srcNode, List<String> dstNodes, List<String> destIndices) {
+		super(createSinks(index, type, srcNode, dstNodes, destIndices))
 		this.srcHttp = new HTTPBuilder(srcNode)
-		this.dstHttp = new HTTPBuilder(dstNode)
+		this.srcNode = srcNode
+		this.scrollClient = new DefaultHttpClient(new PoolingClientConnectionManager())
 		this.index = index
 		this.type = type
 		this.field = field
 		this.batchSize = batchSize
 
+		this.partitioned = destIndices.any { new IndexPattern(it).partitioned }
+		if (partitioned && !field) {
+			throw new IllegalArgumentException("Partitioned destination index requires date field.")
+		}
+
 		this.jsonSlurper = new JsonSlurper()
-		this.jsonBuilder = new JsonBuilder()
+		this.dateFormat = partitioned && field != TIMESTAMP_FIELD ? readDateFormat() : new DateFieldFormat(null)
+	}
+
+	/**
+	 * Reads format of the date field from mapping of the source index.
+	 *
+	 * @return the date format
+	 */
+	private DateFieldFormat readDateFormat() {
+		this.srcHttp.request( Method.GET, ContentType.JSON ) { req ->
+			uri.path = "/$index/_mapping/$type"
+
+			response.success = { resp, json ->
+				// mappings of the index are nested under 'mappings' since 1.0
+				Map mapping = json.values().iterator().next()
+				Map typeMapping = (mapping.mappings ?: mapping)[type]
+				Map fieldMapping = field.tokenize('.').inject(typeMapping) { value, name -> value?.properties?.get(name) }
+				if (!fieldMapping) {
+					throw new IllegalArgumentException("Date field $field is not mapped in $index")
+				}
+				return new DateFieldFormat((String) fieldMapping.format)
+			}
+
+			response.failure = { HttpResponseDecorator resp ->
+				throw new IOException("Cannot read mapping of $index: ${EntityUtils.toString(resp.entity)}")
+			}
+		}
+	}
+
+	private static List<DocumentSink> createSinks(final String index, final String type, final String srcNode, List<String> dstNodes, List<String> destIndices) {
+		List<DocumentSink> sinks = []
+		dstNodes.each { dstNode ->
+			destIndices.each { destIndex ->
+				sinks << new HttpBulkSink(index, type, srcNode, dstNode, destIndex)
+			}
+		}
+		return sinks
+	}
+
+	/**
+	 * Returns number of shards of the source index, summed over all indices it resolves to.
+	 *
+	 * @return the shards
+	 */
+	public int getSourceShards() {
+		int shards = 0
+		srcHttp.request( Method.GET, ContentType.JSON ) { req ->
+			uri.path = "$index/_settings"
+
+			response.success = { resp, json ->
+				json.each { name, indexJson ->
+					// 0.90 returns flat setting names
+					def number = indexJson.settings.index?.number_of_shards ?: indexJson.settings['index.number_of_shards']
+					shards += (number ?: 1) as int
+				}
+			}
+		}
+		return shards
 	}
 
 	/**
@@ -69,6 +172,7 @@ class InterClusterReindexer implements Reindexer {
 	 * @param from the from
 	 * @param to the to
 	 * @return the document number in period
+	 * @throws IOException if documents can't be counted
 	 */
 	public long getDocumentNumberInPeriod(final DateTime from, final DateTime to) {
 		BaseQueryBuilder queryBuilder = null
@@ -87,116 +191,72 @@ class InterClusterReindexer implements Reindexer {
 				return json['count']
 			}
 
-			response.failure = { resp ->
+			response.failure = { HttpResponseDecorator resp ->
 				LOG.error("error acquring number of docs for $index:$type")
+				String period = field ? " between $from and $to" : ""
+				throw new IOException("Cannot count docs of $index:$type$period: ${EntityUtils.toString(resp.entity)}")
 			}
 		}
 	}
 
 	/**
-	 * Create index at dest if it doens't already exist, and copy certain index settings from src to dest cluster
-	 * <p>
-	 * Settings include number of replicas and number of shards, along with the analyzers
+	 * Returns number of documents in every window with single date range aggregation request.
+	 *
+	 * @param windows the windows
+	 * @return the document number of each window
 	 */
-	private void initIndex() {
-		LOG.info("checking $index exists in destination cluster")
+	public Map<TimeWindow, Long> getDocumentNumberInWindows(final List<TimeWindow> windows) {
+		Map<TimeWindow, Long> counts = new LinkedHashMap<TimeWindow, Long>()
 
-		// check index exists at destination, otherwise create it
-		dstHttp.request(Method.HEAD) { headReq ->
-			uri.path = "$index"
+		if (!field) {
+			long count = getDocumentNumberInPeriod(null, null)
+			windows.each { window -> counts[window] = count }
+			return counts
+		}
 
-			response.success = { headResp ->
-				LOG.info("Index already exists at destination, not copying settings / analyzers")
-			}
+		DateRangeBuilder ranges = AggregationBuilders.dateRange(WINDOWS_AGGREGATION).field(this.field)
+		windows.each { window ->
+			ranges.addRange(window.id, window.from.millis, window.to.millis)
+			counts[window] = 0L
+		}
 
-			response.'404' = { headResp ->
-				LOG.info("Index doesn't exist at destination, copying settings / analyzers")
+		SearchSourceBuilder searchSource = new SearchSourceBuilder()
+				.query(QueryBuilders.rangeQuery(this.field).gte(windows*.from.min()).lt(windows*.to.max()))
+				.aggregation(ranges)
 
-				// create index settings - # of shards & replicas, analyzers
-				srcHttp.request( Method.GET, ContentType.JSON ) { req ->
-					uri.path = "$index/_settings"
+		boolean aggregated = this.srcHttp.request( Method.POST, ContentType.JSON ) { req ->
+			uri.path = "$index/$type/_search"
+			uri.query = [ 'search_type' : 'count' ]
+			body = jsonSlurper.parseText(searchSource.toString())
 
-					response.success = { resp, json ->
-						jsonBuilder.call(json)
-						println jsonBuilder.toPrettyString()
-
-						// put type mapping to destination cluster
-						dstHttp.request( Method.PUT, ContentType.JSON ) { dstReq ->
-							uri.path = "$index"
-							body = [
-								settings : [
-									index : [
-										number_of_shards : json[index].settings.index.number_of_shards,
-										number_of_replicas : json[index].settings.index.number_of_replicas,
-										analysis : json[index].settings.index.analysis
-									]
-								]
-							]
-
-							response.success = { dstResp, dstJson ->
-								LOG.info("Copied settings $index")
-							}
-						}
-					}
+			response.success = { resp, json ->
+				if (!json.aggregations) {
+					return false
 				}
-
-				// copy over default mapping
-				srcHttp.request( Method.GET, ContentType.JSON ) { req ->
-					uri.path = "$index/_mappings/_default_"
-
-					response.success = { defMappingResp, defMappingJson ->
-						if (defMappingJson[index]) {
-							// put type mapping to destination cluster
-							dstHttp.request( Method.PUT, ContentType.JSON ) { dstReq ->
-								uri.path = "$index/_mappings/_default_"
-								body = defMappingJson[index]['mappings']
-
-								response.success = { dstResp, dstJson ->
-									LOG.info("Copied mapping for $index:_default_")
-								}
-							}
-						}
+				Map bucketCounts = json.aggregations[WINDOWS_AGGREGATION].buckets.collectEntries { bucket -> [bucket.key, bucket.doc_count] }
+				windows.each { window ->
+					if (bucketCounts[window.id] != null) {
+						counts[window] = bucketCounts[window.id] as Long
 					}
 				}
+				return true
 			}
-		}
-	}
-
-	/**
-	 * If new index doesn't contain mappings for the configured type, then copy from existing index 
-	 */
-	private void initType() {
-		Map mapping = null
-
-		dstHttp.request( Method.GET, ContentType.JSON ) { destMappingReq ->
-			uri.path = "$index/_mapping/$type"
-
-			response.success = { destMappingResp, destMappingJson ->
-				if (!destMappingJson[index]) {
-					srcHttp.request( Method.GET, ContentType.JSON ) { srcMappingReq ->
-						uri.path = "$index/_mapping/$type"
 
-						response.success = { srcMappingResp, srcMappingJson ->
-							mapping = srcMappingJson
-						}
-					}
-				} else {
-				LOG.info("Mapping already exists for $index:$type")
-				}
+			response.failure = { HttpResponseDecorator resp ->
+				LOG.warn("Cannot count docs of $index:$type with aggregation: {}", EntityUtils.toString(resp.entity))
+				return false
 			}
 		}
 
-		if (mapping) {
-			// put type mapping to destination cluster
-			dstHttp.request( Method.PUT, ContentType.JSON ) { dstReq ->
-				uri.path = "$index/_mapping/$type"
-				body = mapping[index]['mappings']
-
-				response.success = { dstResp, dstJson ->
-					LOG.info("Copied mapping for $index:$type")
-				}
+		// sources older than 1.0 don't support aggregations
+		if (!aggregated) {
+			LOG.warn("Counting docs of $index:$type in each of {} windows separately", windows.size())
+			windows.each { window ->
+				counts[window] = getDocumentNumberInPeriod(window.from, window.to)
 			}
 		}
+
+		return counts
 	}
 
 	/**
@@ -209,9 +269,6 @@ class InterClusterReindexer implements Reindexer {
 
 		LOG.info("Start re-indexing for data between {} and {}", from, to)
 
-		initIndex()
-		initType()
-
 		BaseQueryBuilder queryBuilder = null
 		if (field) {
 			queryBuilder = QueryBuilders.filteredQuery(
@@ -223,97 +280,139 @@ class InterClusterReindexer implements Reindexer {
 			queryBuilder = QueryBuilders.matchAllQuery()
 		}
 
+		ScrollRegistry scrolls = getScrolls()
 		String scrollId = null
 		boolean scroll = true
 
 		long totalDocs = 0
-		long errorDocs = 0
 		long start = System.currentTimeMillis()
-		while (scroll) {
-			srcHttp.request( Method.POST, ContentType.JSON ) { req ->
-				uri.path = scrollId ? "/_search/scroll" : "/$index/$type/_search"
-				uri.query = [ 'scroll' : TIMEOUT ]
-				if (!scrollId) {
-					uri.query['search_type'] = 'scan'
-				}
-
-				if (!scrollId) {
-					body = [
-						fields : [PARENT_FIELD, SOURCE_FIELD, TIMESTAMP_FIELD],
-						query : jsonSlurper.parseText(queryBuilder.toString()),
-						size : this.batchSize
-					]
-				} else {
-					body = scrollId
-				}
+		try {
+			while (scroll) {
+				List hits = null
+				awaitSourcePace()
+				String keepAlive = "${getScrollKeepAlive()}ms"
+				srcHttp.request( Method.POST, ContentType.JSON ) { req ->
+					uri.path = scrollId ? "/_search/scroll" : "/$index/$type/_search"
+					uri.query = [ 'scroll' : keepAlive ]
+					if (!scrollId) {
+						uri.query['search_type'] = 'scan'
+					}
 
-				response.success = { resp, json ->
-					if (scrollId) {
-						scroll = json.hits.hits
+					if (!scrollId) {
+						body = [
+							fields : [PARENT_FIELD, SOURCE_FIELD, TIMESTAMP_FIELD],
+							query : jsonSlurper.parseText(queryBuilder.toString()),
+							size : this.batchSize
+						]
 					} else {
-						scroll = json.hits.total > 0
+						body = scrollId
 					}
 
-					scrollId = json._scroll_id
-
-					// process hits
-					if (json.hits.hits) {
-						StringBuilder bulkActions = new StringBuilder(10*1024*1024)
-						json.hits.hits.each { hit ->
-							Map action = [ create : [ _index : this.index, _type : this.type, _id : hit._id ]]
-							if (hit.fields) {
-								action.create << hit.fields
-							}
-							jsonBuilder.call(action)
-							bulkActions.append(jsonBuilder.toString())
-							bulkActions.append('\n')
-
-							jsonBuilder.call(hit._source)
-							bulkActions.append(jsonBuilder.toString())
-							bulkActions.append('\n')
+					response.success = { resp, json ->
+						if (scrollId) {
+							scroll = json.hits.hits
+						} else {
+							scroll = json.hits.total > 0
 						}
 
-						int batchDocs = 0
-						int batchErrs = 0
-						dstHttp.request( Method.POST, ContentType.JSON ) { dstReq ->
-							uri.path = '_bulk'
-							body = bulkActions.toString()
-
-							response.success = { dstResp, dstJson ->
-								dstJson.items.each { item ->
-									if (item.create.error) {
-										LOG.error('Error for document:{} : {}', item.create._id, item.create.error)
-										batchErrs++
-									} else {
-										batchDocs++
-									}
-								}
-							}
-
-							response.failure = { dstResp ->
-								LOG.error('Error while pushing current document batch: {}', EntityUtils.toString(dstResp.entity))
-								throw new IOException('Error while pushing current documents')
-							}
-						}
+						scrolls.track(scrollId, json._scroll_id)
+						scrollId = json._scroll_id
+						hits = json.hits.hits
+					}
 
-						LOG.info("This batch inserted {} documents and had {} failures.", batchDocs, batchErrs)
-						totalDocs += batchDocs
-						errorDocs += batchErrs
+					response.failure = { HttpResponseDecorator resp ->
+						LOG.error('Error while pulling current documents: {}', EntityUtils.toString(resp.entity))
+						throw new IOException('Error while pulling current documents')
 					}
 				}
 
-				response.failure = { HttpResponseDecorator resp ->
-					LOG.error('Error while pulling current documents: {}', EntityUtils.toString(resp.entity))
-					throw new IOException('Error while pulling current documents')
+				// process hits outside of the scroll request, so the response is released before sinks are fed
+				if (hits) {
+					long pageStart = System.currentTimeMillis()
+					List<Document> batch = hits.collect { hit -> toDocument(hit) }
+					write(batch)
+					totalDocs += batch.size()
+					observePage(System.currentTimeMillis() - pageStart)
+				}
+
+				if (isDocumentLimitReached(totalDocs)) {
+					LOG.info("Document limit reached after {} documents", totalDocs)
+					scroll = false
 				}
 			}
+		} catch (Exception e) {
+			discardWindow()
+			throw e
+		} finally {
+			scrolls.clear(scrollId)
 		}
+		flush()
+
 		long end = System.currentTimeMillis()
 		long totalTime = ((end - start) / 1000)+1
 
-		LOG.info("Inserted {} documents in {} secs ({} docs/s)", totalDocs, totalTime, (long) (totalDocs / totalTime))
-		if (errorDocs) {
-			LOG.error("{} documents failed inserion", errorDocs)
+		LOG.info("Copied {} documents in {} secs ({} docs/s)", totalDocs, totalTime, (long) (totalDocs / totalTime))
+	}
+
+	/**
+	 * Clears scroll contexts with DELETE /_search/scroll, scroll ids are sent in the body as they may be too long for
+	 * the URL.
+	 *
+	 * @param scrollIds the scroll ids
+	 */
+	protected void clearScrolls(final List<String> scrollIds) {
+		HttpEntityEnclosingRequestBase request = new HttpEntityEnclosingRequestBase() {
+			public String getMethod() {
+				return 'DELETE'
+			}
+		}
+		request.URI = new URI("$srcNode/_search/scroll")
+		request.entity = new StringEntity(scrollIds.join(','))
+
+		HttpResponse response = scrollClient.execute(request)
+		String content = EntityUtils.toString(response.entity)
+		// 404 - scroll has already expired
+		if (response.statusLine.statusCode >= 300 && response.statusLine.statusCode != 404) {
+			throw new IOException("Cannot clear scroll: $content")
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		super.close()
+		scrollClient.connectionManager.shutdown()
+	}
+
+	/**
+	 * Converts hit into document.
+	 *
+	 * @param hit the hit
+	 * @return the document
+	 */
+	private Document toDocument(final Map hit) {
+		Document document = new Document(hit._id, this.type)
+		document.setSource((Map) hit._source)
+
+		if (hit.fields?.get(PARENT_FIELD)) {
+			document.parent = hit.fields[PARENT_FIELD].toString()
 		}
+		if (hit.fields?.get(TIMESTAMP_FIELD)) {
+			document.timestamp = hit.fields[TIMESTAMP_FIELD].toString()
+		}
+
+		if (partitioned) {
+			Object date
+			if (field == TIMESTAMP_FIELD) {
+				date = hit.fields?.get(TIMESTAMP_FIELD)
+			} else {
+				date = field.tokenize('.').inject(hit._source) { value, name -> value instanceof Map ? value[name] : null }
+			}
+			if (date == null) {
+				throw new IllegalArgumentException("Document ${hit._id} has no $field, cannot route it into partitioned index")
+			}
+			document.date = dateFormat.parse(date)
+		}
+
+		return document
 	}
 }
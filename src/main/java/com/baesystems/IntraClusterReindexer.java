@@ -5,18 +5,27 @@
  */
 package com.baesystems;
 
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.action.admin.indices.mapping.get.GetFieldMappingsResponse;
+import org.elasticsearch.action.admin.indices.mapping.get.GetFieldMappingsResponse.FieldMappingMetaData;
 import org.elasticsearch.action.count.CountResponse;
-import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.RangeQueryBuilder;
 import org.elasticsearch.search.SearchHit;
-import org.elasticsearch.search.internal.InternalSearchHitField;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.range.date.DateRange;
+import org.elasticsearch.search.aggregations.bucket.range.date.DateRangeBuilder;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,7 +33,7 @@ import org.slf4j.LoggerFactory;
 /**
  * The Class Reindexer.
  */
-public class IntraClusterReindexer implements Reindexer {
+public class IntraClusterReindexer extends AbstractReindexer {
     private static final Logger LOG = LoggerFactory.getLogger(IntraClusterReindexer.class);
 
     private final Client client;
@@ -32,7 +41,9 @@ public class IntraClusterReindexer implements Reindexer {
     private final String type;
     private final String field;
     private final int batchSize;
-	private final String newIndexName;
+    private final boolean partitioned;
+    private final String[] fields;
+    private final DateFieldFormat dateFormat;
 
     /**
      * Instantiates a new reindexer.
@@ -42,14 +53,75 @@ public class IntraClusterReindexer implements Reindexer {
      * @param field the field which is used for re-index
      * @param batchSize number of document pulled from ES in batch
      * @param client Elasticsearch client
+     * @param newIndexNames destination index names, each may contain date pattern (see {@link IndexPattern}). Every
+     *            document is written to all of them.
      */
-    public IntraClusterReindexer(final String index, final String type, final String field, final int batchSize, final Client client, final String newIndexName) {
+    public IntraClusterReindexer(final String index, final String type, final String field, final int batchSize, final Client client, final String... newIndexNames) {
+        super(createSinks(client, index, type, newIndexNames));
         this.client = client;
         this.index = index;
         this.type = type;
         this.field = field;
         this.batchSize = batchSize;
-        this.newIndexName = newIndexName;
+
+        boolean partitioned = false;
+        for (String newIndexName : newIndexNames) {
+            partitioned |= new IndexPattern(newIndexName).isPartitioned();
+        }
+        this.partitioned = partitioned;
+
+        if (partitioned && field == null) {
+            throw new IllegalArgumentException("Partitioned destination index requires date field.");
+        }
+
+        // date of the document is needed for routing into partitioned index
+        if (partitioned && !TIMESTAMP_FIELD.equals(field)) {
+            this.fields = new String[] { PARENT_FIELD, SOURCE_FIELD, TIMESTAMP_FIELD, field };
+            this.dateFormat = readDateFormat();
+        } else {
+            this.fields = new String[] { PARENT_FIELD, SOURCE_FIELD, TIMESTAMP_FIELD };
+            this.dateFormat = new DateFieldFormat(null);
+        }
+    }
+
+    /**
+     * Reads format of the date field from mapping of the source index.
+     *
+     * @return the date format
+     */
+    private DateFieldFormat readDateFormat() {
+        GetFieldMappingsResponse response = this.client.admin().indices().prepareGetFieldMappings(this.index)
+                .setTypes(this.type).setFields(this.field).get();
+
+        for (Map<String, ? extends Map<String, FieldMappingMetaData>> types : response.mappings().values()) {
+            FieldMappingMetaData mapping = types.containsKey(this.type) ? types.get(this.type).get(this.field) : null;
+            if (mapping != null && !mapping.isNull()) {
+                // mapping of the field is keyed by its leaf name
+                Map<?, ?> fieldMapping = (Map<?, ?>) mapping.sourceAsMap().values().iterator().next();
+                Object format = fieldMapping.get("format");
+                return new DateFieldFormat(format == null ? null : format.toString());
+            }
+        }
+        throw new IllegalArgumentException("Date field " + this.field + " is not mapped in " + this.index);
+    }
+
+    private static List<DocumentSink> createSinks(final Client client, final String index, final String type, final String... newIndexNames) {
+        List<DocumentSink> sinks = new ArrayList<DocumentSink>();
+        for (String newIndexName : newIndexNames) {
+            sinks.add(new ClientBulkSink(client, index, type, newIndexName));
+        }
+        return sinks;
+    }
+
+    @Override
+    public int getSourceShards() {
+        int shards = 0;
+        Iterator<Settings> settings = this.client.admin().indices().prepareGetSettings(this.index).get()
+                .getIndexToSettings().valuesIt();
+        while (settings.hasNext()) {
+            shards += settings.next().getAsInt("index.number_of_shards", 1);
+        }
+        return shards;
     }
 
     /**
@@ -69,11 +141,57 @@ public class IntraClusterReindexer implements Reindexer {
     }
 
     /**
-     * Copying data in batches from old index to new index.
+     * Returns number of documents in every window with single date range aggregation request.
+     *
+     * @param windows the windows
+     * @return the document number of each window
+     */
+    public Map<TimeWindow, Long> getDocumentNumberInWindows(final List<TimeWindow> windows) {
+        Map<TimeWindow, Long> counts = new LinkedHashMap<TimeWindow, Long>();
+
+        if (this.field == null) {
+            long count = this.client.prepareCount(this.index).setTypes(this.type).get().getCount();
+            for (TimeWindow window : windows) {
+                counts.put(window, count);
+            }
+            return counts;
+        }
+
+        DateRangeBuilder ranges = AggregationBuilders.dateRange(WINDOWS_AGGREGATION).field(this.field);
+        DateTime from = null;
+        DateTime to = null;
+        for (TimeWindow window : windows) {
+            ranges.addRange(window.getId(), window.getFrom().getMillis(), window.getTo().getMillis());
+            counts.put(window, 0L);
+
+            from = from == null || window.getFrom().isBefore(from) ? window.getFrom() : from;
+            to = to == null || window.getTo().isAfter(to) ? window.getTo() : to;
+        }
+
+        SearchResponse response = this.client.prepareSearch(this.index).setTypes(this.type)
+                .setSearchType(SearchType.COUNT).setQuery(QueryBuilders.rangeQuery(this.field).gte(from).lt(to))
+                .addAggregation(ranges).get();
+
+        Map<String, Long> bucketCounts = new LinkedHashMap<String, Long>();
+        DateRange aggregation = response.getAggregations().get(WINDOWS_AGGREGATION);
+        for (DateRange.Bucket bucket : aggregation.getBuckets()) {
+            bucketCounts.put(bucket.getKey(), bucket.getDocCount());
+        }
+
+        for (TimeWindow window : windows) {
+            Long count = bucketCounts.get(window.getId());
+            if (count != null) {
+                counts.put(window, count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Copying data in batches from old index to new indices.
      *
      * @param from Starting date
      * @param to End date
-     * @param newIndexName destination Elasticsearch index
      */
     public void reindex(final DateTime from, final DateTime to) {
 
@@ -81,70 +199,117 @@ public class IntraClusterReindexer implements Reindexer {
 
         RangeQueryBuilder range = QueryBuilders.rangeQuery(this.field).gte(from).lt(to);
 
+        awaitSourcePace();
         SearchResponse response = this.client.prepareSearch(this.index).setTypes(this.type)
-                .setSearchType(SearchType.SCAN).setScroll(new TimeValue(TIMEOUT))
-                .addFields(PARENT_FIELD, SOURCE_FIELD, TIMESTAMP_FIELD).setQuery(range).setSize(this.batchSize).get();
-
-        int number = 0;
+                .setSearchType(SearchType.SCAN).setScroll(new TimeValue(getScrollKeepAlive()))
+                .addFields(this.fields).setQuery(range).setSize(this.batchSize).get();
 
-        while (true) {
-            BulkRequestBuilder bulkRequest = this.client.prepareBulk();
+        String scrollId = response.getScrollId();
+        getScrolls().track(null, scrollId);
 
-            for (SearchHit hit : response.getHits()) {
-                LOG.debug("Document retrieved {}", hit.getId());
+        int number = 0;
 
-                IndexRequestBuilder indexBuilder = this.client.prepareIndex().setIndex(newIndexName).setType(this.type)
-                        .setId(hit.getId()).setSource(hit.getSource());
+        try {
+            while (true) {
+                long pageStart = System.currentTimeMillis();
+                List<Document> batch = new ArrayList<Document>(response.getHits().getHits().length);
 
-                addFieldIfExist(hit, indexBuilder, PARENT_FIELD);
-                addFieldIfExist(hit, indexBuilder, TIMESTAMP_FIELD);
+                for (SearchHit hit : response.getHits()) {
+                    LOG.debug("Document retrieved {}", hit.getId());
 
-                bulkRequest.add(indexBuilder);
-                number++;
+                    batch.add(toDocument(hit));
+                    number++;
+                }
 
-            }
+                LOG.debug("This batch read {} documents.", number);
 
-            LOG.debug("This batch inserted {} documents.", number);
+                if (!batch.isEmpty()) {
+                    write(batch);
+                }
 
-            if (response.getHits().getHits().length > 0) {
-                BulkResponse bulkResponse = bulkRequest.get();
+                if (isDocumentLimitReached(number)) {
+                    LOG.info("Document limit reached after {} documents", number);
+                    break;
+                }
 
-                if (bulkResponse.hasFailures()) {
-                    LOG.error(bulkResponse.buildFailureMessage());
-                    LOG.error("Problem with inserting data.");
+                if (!batch.isEmpty()) {
+                    observePage(System.currentTimeMillis() - pageStart);
                 }
-            }
 
-            response = this.client.prepareSearchScroll(response.getScrollId()).setScroll(new TimeValue(TIMEOUT)).get();
+                awaitSourcePace();
 
-            if (response.getHits().getHits().length == 0) {
-                break;
+                response = this.client.prepareSearchScroll(scrollId).setScroll(new TimeValue(getScrollKeepAlive()))
+                        .get();
+                getScrolls().track(scrollId, response.getScrollId());
+                scrollId = response.getScrollId();
+
+                if (response.getHits().getHits().length == 0) {
+                    break;
+                }
             }
+        } catch (RuntimeException e) {
+            discardWindow();
+            throw e;
+        } finally {
+            getScrolls().clear(scrollId);
         }
 
+        flush();
         LOG.info("Inserted {} documents", number);
 
     }
 
+    @Override
+    protected void clearScrolls(final List<String> scrollIds) {
+        this.client.prepareClearScroll().setScrollIds(scrollIds).get();
+    }
+
     /**
-     * Adds optional data field to document.
+     * Converts hit into document, keeping raw source.
      *
      * @param hit the hit
-     * @param indexBuilder the index builder
-     * @param fieldName the field name
+     * @return the document
      */
-    private void addFieldIfExist(final SearchHit hit, final IndexRequestBuilder indexBuilder, final String fieldName) {
-        Object object = hit.getFields().get(fieldName);
-        if (object != null && object instanceof InternalSearchHitField) {
+    private Document toDocument(final SearchHit hit) {
+        Document document = new Document(hit.getId(), this.type);
+        document.setSource(hit.sourceRef());
+
+        Object parent = getFieldIfExist(hit, PARENT_FIELD);
+        if (parent != null) {
+            document.setParent(parent.toString());
+        }
 
-            InternalSearchHitField field = (InternalSearchHitField) object;
+        Object timestamp = getFieldIfExist(hit, TIMESTAMP_FIELD);
+        if (timestamp != null) {
+            document.setTimestamp(timestamp.toString());
+        }
 
-            LOG.debug("Added {} '{}' to document {}", fieldName, field.getValue(), hit.getId());
-            if (TIMESTAMP_FIELD.equals(fieldName)) {
-                indexBuilder.setTimestamp(field.getValue().toString());
-            } else if (PARENT_FIELD.equals(fieldName)) {
-                indexBuilder.setParent(field.getValue().toString());
+        if (this.partitioned) {
+            Object date = getFieldIfExist(hit, this.field);
+            if (date == null) {
+                throw new IllegalArgumentException("Document " + hit.getId() + " has no " + this.field
+                        + ", cannot route it into partitioned index");
             }
+            document.setDate(this.dateFormat.parse(date));
+        }
+
+        return document;
+    }
+
+    /**
+     * Returns optional data field of document.
+     *
+     * @param hit the hit
+     * @param fieldName the field name
+     * @return the field value, null if it doesn't exist
+     */
+    private Object getFieldIfExist(final SearchHit hit, final String fieldName) {
+        SearchHitField field = hit.getFields().get(fieldName);
+        if (field == null) {
+            return null;
         }
+
+        LOG.debug("Added {} '{}' to document {}", fieldName, field.getValue(), hit.getId());
+        return field.getValue();
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+/**
+ * Shared store of work unit leases used to split one re-indexing job between several processes.
+ * <p>
+ * A lease is held by one owner until it expires. An expired lease of an unfinished unit can be acquired by any other
+ * owner, so work of a crashed process is picked up again.
+ */
+public interface LeaseStore {
+
+    /**
+     * Tries to acquire lease of the work unit.
+     *
+     * @param unit the work unit id
+     * @param owner the owner id
+     * @param leaseTime lease time in milliseconds
+     * @return true, if the lease is now held by the owner
+     */
+    boolean acquire(String unit, String owner, long leaseTime);
+
+    /**
+     * Extends lease which is already held by the owner.
+     *
+     * @param unit the work unit id
+     * @param owner the owner id
+     * @param leaseTime lease time in milliseconds
+     * @return false, if the lease has been lost to another owner
+     */
+    boolean renew(String unit, String owner, long leaseTime);
+
+    /**
+     * Gives the lease up without completing the work unit.
+     *
+     * @param unit the work unit id
+     * @param owner the owner id
+     */
+    void release(String unit, String owner);
+
+    /**
+     * Marks the work unit as done.
+     *
+     * @param unit the work unit id
+     * @param owner the owner id
+     */
+    void complete(String unit, String owner);
+
+    /**
+     * Checks whether the work unit is done.
+     *
+     * @param unit the work unit id
+     * @return true, if completed
+     */
+    boolean isCompleted(String unit);
+}
@@ -0,0 +1,89 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Load of one Elasticsearch node - thread pool queues and rejections, heap usage and GC time.
+ */
+public class NodeLoad {
+
+    private final String node;
+    private final Map<String, Long> queues = new HashMap<String, Long>();
+    private final Map<String, Long> rejections = new HashMap<String, Long>();
+    private int heapUsedPercent;
+    private long gcTime;
+
+    /**
+     * Instantiates a new node load.
+     *
+     * @param node name of the node
+     */
+    public NodeLoad(final String node) {
+        this.node = node;
+    }
+
+    public String getNode() {
+        return this.node;
+    }
+
+    /**
+     * Records stats of a thread pool.
+     *
+     * @param pool name of the thread pool
+     * @param queue number of queued tasks
+     * @param rejected number of tasks rejected since node start
+     */
+    public void setThreadPool(final String pool, final long queue, final long rejected) {
+        this.queues.put(pool, queue);
+        this.rejections.put(pool, rejected);
+    }
+
+    /**
+     * Returns number of queued tasks of a thread pool.
+     *
+     * @param pool name of the thread pool
+     * @return the queue size, 0 if the pool is unknown
+     */
+    public long getQueue(final String pool) {
+        Long queue = this.queues.get(pool);
+        return queue == null ? 0 : queue;
+    }
+
+    /**
+     * Returns number of tasks rejected by a thread pool since node start.
+     *
+     * @param pool name of the thread pool
+     * @return the rejected tasks, 0 if the pool is unknown
+     */
+    public long getRejected(final String pool) {
+        Long rejected = this.rejections.get(pool);
+        return rejected == null ? 0 : rejected;
+    }
+
+    public int getHeapUsedPercent() {
+        return this.heapUsedPercent;
+    }
+
+    public void setHeapUsedPercent(final int heapUsedPercent) {
+        this.heapUsedPercent = heapUsedPercent;
+    }
+
+    /**
+     * Returns time spent in all garbage collectors since node start.
+     *
+     * @return the GC time in milliseconds
+     */
+    public long getGcTime() {
+        return this.gcTime;
+    }
+
+    public void setGcTime(final long gcTime) {
+        this.gcTime = gcTime;
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.List;
+
+/**
+ * Reads current load of all nodes of one cluster.
+ */
+public interface NodeStatsProbe {
+
+    /**
+     * Returns name of the cluster used in logs.
+     *
+     * @return the name
+     */
+    String getName();
+
+    /**
+     * Reads node stats of the cluster.
+     *
+     * @return load of every node
+     */
+    List<NodeLoad> sample();
+}
@@ -0,0 +1,139 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Throttles a re-indexing loop according to health of the cluster it loads.
+ * <p>
+ * Pace is reported by one or more monitored clusters and the worst one wins. Loop calls {@link #await()} before every
+ * request, which returns immediately at normal pace, sleeps at slow pace and blocks while paused. Pause is limited to
+ * maximum pause, so scroll context of a paused loop doesn't expire, the loop continues at slow pace afterwards.
+ */
+public class Pacer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Pacer.class);
+
+    /**
+     * Pace of the loop, ordered from the fastest.
+     */
+    public enum Pace {
+        NORMAL, SLOW, PAUSED
+    }
+
+    private final String name;
+    private final long slowDelay;
+    private final long maxPause;
+    private final Map<String, Pace> reported = new HashMap<String, Pace>();
+    private Pace pace = Pace.NORMAL;
+    private long pausedSince;
+    private boolean pauseExceeded;
+
+    /**
+     * Instantiates a new pacer.
+     *
+     * @param name name of the loop used in logs
+     * @param slowDelay delay before every request at slow pace in milliseconds
+     * @param maxPause maximum length of a pause in milliseconds
+     */
+    public Pacer(final String name, final long slowDelay, final long maxPause) {
+        this.name = name;
+        this.slowDelay = slowDelay;
+        this.maxPause = maxPause;
+    }
+
+    /**
+     * Returns current pace. Pause longer than maximum pause is reported as slow pace.
+     *
+     * @return the pace
+     */
+    public synchronized Pace getPace() {
+        if (this.pace == Pace.PAUSED && getPauseLeft() <= 0) {
+            return Pace.SLOW;
+        }
+        return this.pace;
+    }
+
+    /**
+     * Returns maximum time a loop can be blocked by one pause.
+     *
+     * @return the maximum pause in milliseconds
+     */
+    public long getMaxPause() {
+        return this.maxPause;
+    }
+
+    /**
+     * Records pace reported by a monitored cluster and logs change of the resulting pace.
+     *
+     * @param cluster name of the cluster
+     * @param clusterPace pace required by the cluster
+     * @param reason reason of the pace, logged when pace changes
+     */
+    public synchronized void update(final String cluster, final Pace clusterPace, final String reason) {
+        this.reported.put(cluster, clusterPace);
+
+        Pace worst = Pace.NORMAL;
+        for (Pace value : this.reported.values()) {
+            if (value.compareTo(worst) > 0) {
+                worst = value;
+            }
+        }
+
+        if (worst != this.pace) {
+            if (worst == Pace.NORMAL) {
+                LOG.info("Pace of {} changed from {} to {} - {} recovered", this.name, this.pace, worst, cluster);
+            } else {
+                LOG.warn("Pace of {} changed from {} to {} - {}: {}", this.name, this.pace, worst, cluster, reason);
+            }
+            if (worst == Pace.PAUSED) {
+                this.pausedSince = System.currentTimeMillis();
+                this.pauseExceeded = false;
+            }
+            this.pace = worst;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits according to current pace.
+     */
+    public void await() {
+        try {
+            long delay;
+            synchronized (this) {
+                while (this.pace == Pace.PAUSED) {
+                    long left = getPauseLeft();
+                    if (left <= 0) {
+                        if (!this.pauseExceeded) {
+                            LOG.warn("{} paused for {} ms, continuing at slow pace", this.name, this.maxPause);
+                            this.pauseExceeded = true;
+                        }
+                        break;
+                    }
+                    wait(left);
+                }
+                delay = getPace() == Pace.SLOW ? this.slowDelay : 0;
+            }
+
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while " + this.name + " was paused.", e);
+        }
+    }
+
+    private long getPauseLeft() {
+        return this.pausedSince + this.maxPause - System.currentTimeMillis();
+    }
+}
@@ -1,14 +1,21 @@
 package com.baesystems;
 
+import java.util.List;
+import java.util.Map;
+
 import org.joda.time.DateTime;
 
 public interface Reindexer {
 	static final String TIMESTAMP_FIELD = "_timestamp";
 	static final String SOURCE_FIELD = "_source";
 	static final String PARENT_FIELD = "_parent";
-	static final int TIMEOUT = 60000;
+	static final String WINDOWS_AGGREGATION = "windows";
 
 	long getDocumentNumberInPeriod(final DateTime from, final DateTime to);
 
+	Map<TimeWindow, Long> getDocumentNumberInWindows(final List<TimeWindow> windows);
+
 	void reindex(final DateTime from, final DateTime to);
+
+	void close();
 }
@@ -0,0 +1,72 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+/**
+ * Keep-alive of scroll context derived from observed time between scroll requests.
+ * <p>
+ * Keep-alive is a multiple of the slowest recent page, so the context survives occasional slow bulk requests or
+ * paced waits, but isn't held for an hour when pages are processed in seconds. It also covers the backlog of sinks, as
+ * first pages of a window only fill sink queues and take milliseconds, while the reader then blocks for whole bulk
+ * requests. The slowest page decays with every
+ * faster page, so a single spike doesn't raise keep-alive for the rest of the run. Longest pause of a paced loop is
+ * added to every keep-alive, as a pause can start after any request, when the loop still runs at normal pace.
+ */
+public class ScrollKeepAlive {
+
+    // keep-alive used before any page is processed, covers creating destination indices
+    static final long INITIAL = 5 * 60 * 1000;
+
+    static final long MIN = 60 * 1000;
+
+    // large binary documents can take long to process
+    static final long MAX = 60 * 60 * 1000;
+
+    private static final int FACTOR = 3;
+
+    private static final double DECAY = 0.9;
+
+    private final long pauseAllowance;
+    private double slowest;
+
+    /**
+     * Instantiates keep-alive of a loop which is never paused.
+     */
+    public ScrollKeepAlive() {
+        this(0);
+    }
+
+    /**
+     * Instantiates keep-alive of a paced loop.
+     *
+     * @param pauseAllowance longest time the loop can be paused between two scroll requests in milliseconds
+     */
+    public ScrollKeepAlive(final long pauseAllowance) {
+        this.pauseAllowance = pauseAllowance;
+    }
+
+    /**
+     * Records time spent on one page, from receiving it until requesting the next one.
+     *
+     * @param time the time in milliseconds
+     */
+    public synchronized void observe(final long time) {
+        this.slowest = Math.max(time, this.slowest * DECAY);
+    }
+
+    /**
+     * Returns keep-alive for the next scroll request.
+     *
+     * @param backlog time reading can be blocked by full sink queues in milliseconds
+     * @return the keep-alive in milliseconds
+     */
+    public synchronized long get(final long backlog) {
+        if (this.slowest == 0) {
+            return Math.min(MAX, Math.max(INITIAL, backlog)) + this.pauseAllowance;
+        }
+        return Math.min(MAX, Math.max(MIN, Math.max((long) (this.slowest * FACTOR), backlog))) + this.pauseAllowance;
+    }
+}
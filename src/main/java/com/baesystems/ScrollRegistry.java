@@ -0,0 +1,120 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks open scroll contexts, so none of them is left holding segments and heap on source nodes.
+ * <p>
+ * Scroll is cleared once its window completes or fails. Scrolls still open when JVM exits are cleared by shutdown hook,
+ * which is registered until the registry is closed.
+ */
+public class ScrollRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScrollRegistry.class);
+
+    /**
+     * Clears scroll contexts in the source cluster.
+     */
+    public interface Clearer {
+        void clear(List<String> scrollIds);
+    }
+
+    private final Clearer clearer;
+    private final Set<String> open = new LinkedHashSet<String>();
+    private final Thread shutdownHook;
+
+    /**
+     * Instantiates a new scroll registry and registers its shutdown hook.
+     *
+     * @param clearer the clearer
+     */
+    public ScrollRegistry(final Clearer clearer) {
+        this.clearer = clearer;
+        this.shutdownHook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                clearAll();
+            }
+        }, "scroll-cleaner");
+
+        Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+    }
+
+    /**
+     * Records scroll id returned by search or scroll request. Scroll id may change with every page.
+     *
+     * @param previousId scroll id used by the request, null for initial search
+     * @param scrollId scroll id returned by the request
+     */
+    public synchronized void track(final String previousId, final String scrollId) {
+        if (previousId != null) {
+            this.open.remove(previousId);
+        }
+        if (scrollId != null) {
+            this.open.add(scrollId);
+        }
+    }
+
+    /**
+     * Clears scroll context. Failure is only logged, as the context expires with its keep-alive anyway.
+     *
+     * @param scrollId the scroll id, null if no scroll was opened
+     */
+    public void clear(final String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        synchronized (this) {
+            this.open.remove(scrollId);
+        }
+        clear(Collections.singletonList(scrollId));
+    }
+
+    /**
+     * Clears all open scroll contexts.
+     */
+    public void clearAll() {
+        List<String> scrollIds;
+        synchronized (this) {
+            scrollIds = new ArrayList<String>(this.open);
+            this.open.clear();
+        }
+        if (!scrollIds.isEmpty()) {
+            LOG.info("Clearing {} open scrolls", scrollIds.size());
+            clear(scrollIds);
+        }
+    }
+
+    /**
+     * Clears all open scroll contexts and unregisters shutdown hook.
+     */
+    public void close() {
+        clearAll();
+        try {
+            Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+        } catch (IllegalStateException e) {
+            // JVM is already shutting down, the hook runs anyway
+        }
+    }
+
+    private void clear(final List<String> scrollIds) {
+        try {
+            this.clearer.clear(scrollIds);
+            LOG.debug("Cleared {} scrolls", scrollIds.size());
+        } catch (Exception e) {
+            LOG.warn("Cannot clear scroll, it expires with its keep-alive", e);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * A single unit of re-indexing work - all documents between two dates. NOTE 'to' date is exclusive.
+ * <p>
+ * A window without dates covers the whole index and is used when no time field is configured.
+ */
+public class TimeWindow {
+
+    private static final DateTimeFormatter ID_FORMAT = ISODateTimeFormat.basicDateTimeNoMillis().withZoneUTC();
+
+    private static final String ALL_ID = "all";
+
+    private final DateTime from;
+    private final DateTime to;
+
+    /**
+     * Instantiates a new time window.
+     *
+     * @param from start date (inclusive), null for the whole index
+     * @param to end date (exclusive), null for the whole index
+     */
+    public TimeWindow(final DateTime from, final DateTime to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Splits given period into windows of given number of days, the newest window first.
+     *
+     * @param start start date (inclusive)
+     * @param end end date (exclusive)
+     * @param days size of the window in days
+     * @return the windows
+     */
+    public static List<TimeWindow> split(final DateTime start, final DateTime end, final int days) {
+        List<TimeWindow> windows = new ArrayList<TimeWindow>();
+
+        DateTime to = end;
+        while (true) {
+            DateTime from = to.minusDays(days);
+            if (from.isBefore(start)) {
+                from = start;
+            }
+
+            windows.add(new TimeWindow(from, to));
+
+            if (from.equals(start)) {
+                break;
+            }
+            to = from;
+        }
+
+        return windows;
+    }
+
+    public DateTime getFrom() {
+        return from;
+    }
+
+    public DateTime getTo() {
+        return to;
+    }
+
+    /**
+     * Returns identifier of the window which is stable between processes, so it can be used as a work unit key.
+     *
+     * @return the id
+     */
+    public String getId() {
+        if (from == null || to == null) {
+            return ALL_ID;
+        }
+        return ID_FORMAT.print(from) + "_" + ID_FORMAT.print(to);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof TimeWindow)) {
+            return false;
+        }
+        return getId().equals(((TimeWindow) obj).getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return getId().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + from + ", " + to + ")";
+    }
+}
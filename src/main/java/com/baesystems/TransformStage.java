@@ -0,0 +1,233 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs chain of transformers on batches of documents. Each batch is split between worker threads, order of the
+ * documents is kept.
+ * <p>
+ * Batches are handed over through a bounded queue and transformed in background, one after another, so the reader
+ * fetches the next page while the previous one is transformed. Reading blocks only when the queue is full.
+ */
+public class TransformStage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TransformStage.class);
+
+    /**
+     * Receiver of transformed batches.
+     */
+    public interface Output {
+
+        /**
+         * Writes transformed batch, which is never empty.
+         *
+         * @param batch the documents
+         */
+        void write(List<Document> batch);
+    }
+
+    private final List<DocumentTransformer> transformers;
+    private final int threads;
+    private final ExecutorService executor;
+    private final BlockingQueue<List<Document>> queue;
+    private final Output output;
+    private final Thread feeder;
+    private int pending;
+    private RuntimeException failure;
+
+    /**
+     * Instantiates a new transform stage and starts transforming submitted batches.
+     *
+     * @param transformers the transformers, applied in the given order
+     * @param threads number of worker threads
+     * @param queueSize number of batches waiting for transformation
+     * @param output receiver of transformed batches
+     */
+    public TransformStage(final List<DocumentTransformer> transformers, final int threads, final int queueSize,
+            final Output output) {
+        this.transformers = transformers;
+        this.output = output;
+        this.queue = new ArrayBlockingQueue<List<Document>>(queueSize);
+        this.threads = Math.max(1, threads);
+        this.executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+            private final AtomicInteger number = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "transform-" + number.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        this.feeder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                feed();
+            }
+        }, "transform-feeder");
+        this.feeder.setDaemon(true);
+        this.feeder.start();
+    }
+
+    /**
+     * Queues batch for transformation. Blocks while the queue is full.
+     *
+     * @param batch the documents
+     */
+    public void submit(final List<Document> batch) {
+        synchronized (this) {
+            this.pending++;
+        }
+        try {
+            this.queue.put(batch);
+        } catch (InterruptedException e) {
+            done();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing documents.", e);
+        }
+    }
+
+    /**
+     * Waits until all queued batches are transformed and passed to the output.
+     *
+     * @throws RuntimeException if transformation of any batch failed since the previous flush, batches queued after
+     *             the failed one are dropped
+     */
+    public synchronized void flush() {
+        try {
+            while (this.pending > 0) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for documents to be transformed.", e);
+        }
+
+        RuntimeException failed = this.failure;
+        this.failure = null;
+        if (failed != null) {
+            throw failed;
+        }
+    }
+
+    /**
+     * Transforms batch of documents.
+     *
+     * @param batch the documents
+     * @return the transformed documents without the dropped ones
+     */
+    public List<Document> apply(final List<Document> batch) {
+        if (this.threads == 1 || batch.size() < 2) {
+            return transform(batch);
+        }
+
+        List<Future<List<Document>>> parts = new ArrayList<Future<List<Document>>>();
+        int partSize = (batch.size() + this.threads - 1) / this.threads;
+
+        for (int start = 0; start < batch.size(); start += partSize) {
+            final List<Document> part = batch.subList(start, Math.min(start + partSize, batch.size()));
+            parts.add(this.executor.submit(new Callable<List<Document>>() {
+                @Override
+                public List<Document> call() {
+                    return transform(part);
+                }
+            }));
+        }
+
+        List<Document> transformed = new ArrayList<Document>(batch.size());
+        try {
+            for (Future<List<Document>> part : parts) {
+                transformed.addAll(part.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while transforming documents.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Document transformation failed.", e.getCause());
+        }
+        return transformed;
+    }
+
+    /**
+     * Stops worker threads. Batches which are not transformed yet are dropped.
+     */
+    public void close() {
+        this.feeder.interrupt();
+        this.executor.shutdownNow();
+    }
+
+    private void feed() {
+        while (true) {
+            List<Document> batch;
+            try {
+                batch = this.queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                if (!isFailed()) {
+                    List<Document> transformed = apply(batch);
+                    if (!transformed.isEmpty()) {
+                        this.output.write(transformed);
+                    }
+                }
+            } catch (RuntimeException e) {
+                LOG.error("Transformation of batch of " + batch.size() + " documents failed", e);
+                fail(e);
+            } finally {
+                done();
+            }
+        }
+    }
+
+    private synchronized boolean isFailed() {
+        return this.failure != null;
+    }
+
+    private synchronized void fail(final RuntimeException e) {
+        this.failure = e;
+    }
+
+    private synchronized void done() {
+        this.pending--;
+        notifyAll();
+    }
+
+    private List<Document> transform(final List<Document> documents) {
+        List<Document> transformed = new ArrayList<Document>(documents.size());
+
+        for (Document document : documents) {
+            for (DocumentTransformer transformer : this.transformers) {
+                document = transformer.transform(document);
+                if (document == null) {
+                    break;
+                }
+            }
+
+            if (document != null) {
+                transformed.add(document);
+            }
+        }
+        return transformed;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Software Copyright BAE Systems plc 2015. All Rights Reserved.
+ * BAE SYSTEMS, DETICA and CYBERREVEAL are trademarks of BAE Systems
+ * plc and may be registered in certain jurisdictions.
+ */
+package com.baesystems;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares time windows of one job between several re-indexing processes.
+ * <p>
+ * Every worker claims a window by acquiring its lease, keeps renewing the lease while the window is re-indexed and
+ * marks the window done afterwards. Windows leased by other workers are checked again until they are done, so
+ * windows of crashed workers are taken over once their lease expires. Lease of a failed window is released, so
+ * another worker can try it, and the worker continues with the remaining windows.
+ */
+public class WorkCoordinator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkCoordinator.class);
+
+    /**
+     * Work done for every claimed window.
+     */
+    public interface Task {
+        void process(TimeWindow window);
+    }
+
+    private final LeaseStore store;
+    private final String owner;
+    private final long leaseTime;
+
+    /**
+     * Instantiates a new work coordinator.
+     *
+     * @param store the lease store shared by all workers
+     * @param owner id of this worker
+     * @param leaseTime lease time in milliseconds
+     */
+    public WorkCoordinator(final LeaseStore store, final String owner, final long leaseTime) {
+        this.store = store;
+        this.owner = owner;
+        this.leaseTime = leaseTime;
+    }
+
+    /**
+     * Processes windows until all of them are done by this or other workers, or failed in this worker.
+     *
+     * @param windows all windows of the job, in the same order for every worker
+     * @param task the task
+     * @throws IllegalStateException if any window failed in this worker
+     */
+    public void run(final List<TimeWindow> windows, final Task task) {
+        LOG.info("Worker {} started on {} windows", this.owner, windows.size());
+
+        ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor();
+        List<TimeWindow> pending = new ArrayList<TimeWindow>(windows);
+        List<TimeWindow> failed = new ArrayList<TimeWindow>();
+        int processed = 0;
+
+        try {
+            while (!pending.isEmpty()) {
+                boolean claimed = false;
+
+                for (Iterator<TimeWindow> it = pending.iterator(); it.hasNext();) {
+                    TimeWindow window = it.next();
+
+                    if (this.store.isCompleted(window.getId())) {
+                        it.remove();
+                    } else if (this.store.acquire(window.getId(), this.owner, this.leaseTime)) {
+                        if (process(window, task, renewer)) {
+                            processed++;
+                        } else {
+                            failed.add(window);
+                        }
+                        it.remove();
+                        claimed = true;
+                    }
+                }
+
+                if (!pending.isEmpty() && !claimed) {
+                    LOG.info("{} windows are leased by other workers, waiting.", pending.size());
+                    Thread.sleep(this.leaseTime / 2);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Worker {} interrupted.", this.owner);
+            Thread.currentThread().interrupt();
+        } finally {
+            renewer.shutdownNow();
+        }
+
+        LOG.info("Worker {} finished, processed {} windows", this.owner, processed);
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException("Re-indexing of " + failed.size() + " windows failed: " + failed);
+        }
+    }
+
+    /**
+     * Processes claimed window, renewing its lease meanwhile, and completes it or releases it on failure.
+     *
+     * @return true, if the window is done
+     */
+    private boolean process(final TimeWindow window, final Task task, final ScheduledExecutorService renewer) {
+        LOG.info("Worker {} claimed window {}", this.owner, window);
+
+        final String unit = window.getId();
+        final AtomicBoolean lost = new AtomicBoolean();
+
+        ScheduledFuture<?> renewal = renewer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!store.renew(unit, owner, leaseTime) && !lost.getAndSet(true)) {
+                        LOG.warn("Lease of window {} was taken over by another worker.", unit);
+                    }
+                } catch (RuntimeException e) {
+                    LOG.warn("Cannot renew lease of window " + unit, e);
+                }
+            }
+        }, this.leaseTime / 3, this.leaseTime / 3, TimeUnit.MILLISECONDS);
+
+        try {
+            task.process(window);
+        } catch (RuntimeException e) {
+            LOG.error("Re-indexing of window " + window + " failed, releasing it", e);
+            renewal.cancel(false);
+            this.store.release(unit, this.owner);
+            return false;
+        }
+
+        renewal.cancel(false);
+        this.store.complete(unit, this.owner);
+        return true;
+    }
+}
@@ -0,0 +1,100 @@
+package com.baesystems;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClusterHealthMonitorTest {
+
+    private static final String POOL = "search";
+
+    private NodeLoad load;
+    private Pacer pacer;
+    private ClusterHealthMonitor.Watch watch;
+    private ClusterHealthMonitor monitor;
+
+    @Before
+    public void before() throws Exception {
+        this.load = new NodeLoad("node");
+        this.load.setThreadPool(POOL, 0, 0);
+        this.load.setHeapUsedPercent(50);
+
+        this.pacer = new Pacer("scroll", 0, 60000);
+        this.monitor = new ClusterHealthMonitor(1000, 100, 90, 20);
+        this.watch = new ClusterHealthMonitor.Watch(new NodeStatsProbe() {
+            @Override
+            public String getName() {
+                return "cluster";
+            }
+
+            @Override
+            public List<NodeLoad> sample() {
+                return Collections.singletonList(ClusterHealthMonitorTest.this.load);
+            }
+        }, this.pacer, POOL);
+    }
+
+    @Test
+    public void healthyClusterRunsAtNormalPace() throws Exception {
+        this.monitor.poll(this.watch);
+        assertThat(this.pacer.getPace(), equalTo(Pacer.Pace.NORMAL));
+    }
+
+    @Test
+    public void growingQueueSlowsDownAndPauses() throws Exception {
+        this.load.setThreadPool(POOL, 80, 0);
+        this.monitor.poll(this.watch);
+        assertThat(this.pacer.getPace(), equalTo(Pacer.Pace.SLOW));
+
+        this.load.setThreadPool(POOL, 100, 0);
+        this.monitor.poll(this.watch);
+        assertThat(this.pacer.getPace(), equalTo(Pacer.Pace.PAUSED));
+
+        this.load.setThreadPool(POOL, 0, 0);
+        this.monitor.poll(this.watch);
+        assertThat(this.pacer.getPace(), equalTo(Pacer.Pace.NORMAL));
+    }
+
+    @Test
+    public void rejectionPausesUntilNextPoll() throws Exception {
+        this.load.setThreadPool(POOL, 0, 10);
+        this.monitor.poll(this.watch);
+        assertThat(this.pacer.getPace(), equalTo(Pacer.Pace.NORMAL));
+
+        this.load.setThreadPool(POOL, 0, 12);
+        this.monitor.poll(this.watch);
+        assertThat(this.pacer.getPace(), equalTo(Pacer.Pace.PAUSED));
+
+        this.monitor.poll(this.watch);
+        assertThat(this.pacer.getPace(), equalTo(Pacer.Pace.NORMAL));
+    }
+
+    @Test
+    public void fullHeapPauses() throws Exception {
+        this.load.setHeapUsedPercent(95);
+        this.monitor.poll(this.watch);
+        assertThat(this.pacer.getPace(), equalTo(Pacer.Pace.PAUSED));
+    }
+
+    @Test
+    public void heapBelowThresholdDoesNotSlowDown() throws Exception {
+        this.load.setHeapUsedPercent(85);
+        this.monitor.poll(this.watch);
+        assertThat(this.pacer.getPace(), equalTo(Pacer.Pace.NORMAL));
+    }
+
+    @Test
+    public void worstClusterSetsPace() throws Exception {
+        this.pacer.update("source", Pacer.Pace.SLOW, "queue");
+        this.pacer.update("destination", Pacer.Pace.PAUSED, "heap");
+        assertThat(this.pacer.getPace(), equalTo(Pacer.Pace.PAUSED));
+
+        this.pacer.update("destination", Pacer.Pace.NORMAL, null);
+        assertThat(this.pacer.getPace(), equalTo(Pacer.Pace.SLOW));
+    }
+}
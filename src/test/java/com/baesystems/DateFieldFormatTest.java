@@ -0,0 +1,44 @@
+package com.baesystems;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.Arrays;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+public class DateFieldFormatTest {
+
+    private static final long DATE = new DateTime(2015, 7, 25, 0, 0, DateTimeZone.UTC).getMillis();
+
+    @Test
+    public void basicDateIsNotReadAsMillis() throws Exception {
+        assertThat(new DateFieldFormat("basic_date").parse("20150725"), equalTo(DATE));
+    }
+
+    @Test
+    public void customFormatIsUsed() throws Exception {
+        DateFieldFormat format = new DateFieldFormat("yyyy/MM/dd HH:mm:ss||yyyy/MM/dd");
+        assertThat(format.parse("2015/07/25 10:00:00"), equalTo(DATE + 10 * 3600 * 1000));
+        assertThat(format.parse("2015/07/25"), equalTo(DATE));
+    }
+
+    @Test
+    public void defaultFormatIsIso() throws Exception {
+        assertThat(new DateFieldFormat(null).parse("2015-07-25T00:00:00Z"), equalTo(DATE));
+    }
+
+    @Test
+    public void numbersAreMillis() throws Exception {
+        DateFieldFormat format = new DateFieldFormat(null);
+        assertThat(format.parse(DATE), equalTo(DATE));
+        assertThat(format.parse(Arrays.asList(DATE)), equalTo(DATE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unparsableDateFails() throws Exception {
+        new DateFieldFormat("yyyy/MM/dd").parse("25 July 2015");
+    }
+}
@@ -0,0 +1,213 @@
+package com.baesystems;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class FanOutWriterTest {
+
+    private static final int BATCH_SIZE = 10;
+    private static final long TIMEOUT = 5000;
+
+    private FanOutWriter writer;
+
+    @After
+    public void after() throws Exception {
+        if (this.writer != null) {
+            this.writer.close();
+        }
+    }
+
+    @Test
+    public void slowestSinkThrottlesReadingWhileOthersKeepWriting() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        StubSink slow = new StubSink("slow", release, 0, false);
+        StubSink fast = new StubSink("fast", null, 0, false);
+        this.writer = new FanOutWriter(Arrays.asList(slow, fast), 1, 1, null, 0);
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 3; i++) {
+                    FanOutWriterTest.this.writer.write(batch());
+                }
+            }
+        });
+        reader.start();
+
+        // first batch is written by the slow sink, second one waits in its queue and third one can't be queued
+        waitFor(fast, 2);
+        reader.join(200);
+        assertThat(reader.isAlive(), equalTo(true));
+        assertThat(slow.batches.get(), equalTo(0));
+
+        release.countDown();
+        reader.join(TIMEOUT);
+        this.writer.flush();
+
+        assertThat(slow.batches.get(), equalTo(3));
+        assertThat(fast.batches.get(), equalTo(3));
+        assertThat(this.writer.getDocuments(), equalTo(6L * BATCH_SIZE));
+    }
+
+    @Test
+    public void backlogCoversQueueOfSlowestSink() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        StubSink slow = new StubSink("slow", release, 0, false);
+        StubSink fast = new StubSink("fast", null, 0, false);
+        this.writer = new FanOutWriter(Arrays.asList(slow, fast), 2, 1, null, 0);
+        assertThat(this.writer.hasLatency(), equalTo(false));
+
+        // latency of a running bulk request counts before it completes
+        this.writer.write(batch());
+        waitFor(fast, 1);
+        Thread.sleep(200);
+        assertThat(this.writer.hasLatency(), equalTo(false));
+        assertThat(this.writer.getBacklogTime(0) >= 3 * 200, equalTo(true));
+
+        release.countDown();
+        this.writer.flush();
+        assertThat(this.writer.hasLatency(), equalTo(true));
+        assertThat(this.writer.getBacklogTime(0) >= 3 * 200, equalTo(true));
+        assertThat(this.writer.getBacklogTime(4) >= 7 * 200, equalTo(true));
+    }
+
+    @Test
+    public void pausedClusterDoesNotStopSinksOfOtherClusters() throws Exception {
+        StubSink paused = new StubSink("paused", null, 0, false);
+        StubSink healthy = new StubSink("healthy", null, 0, false);
+        Pacer pacer = new Pacer("bulk to paused", 0, 60000);
+        pacer.update("paused", Pacer.Pace.PAUSED, "heap");
+        this.writer = new FanOutWriter(Arrays.asList(paused, healthy), 1, 1,
+                Collections.singletonMap("paused", pacer), 0);
+
+        this.writer.write(batch());
+        this.writer.write(batch());
+        waitFor(healthy, 2);
+        assertThat(paused.batches.get(), equalTo(0));
+
+        pacer.update("paused", Pacer.Pace.NORMAL, null);
+        this.writer.flush();
+        assertThat(paused.batches.get(), equalTo(2));
+    }
+
+    @Test
+    public void lostBatchFailsFlushButOtherSinksKeepWriting() throws Exception {
+        StubSink failing = new StubSink("failing", null, 0, true);
+        StubSink working = new StubSink("working", null, 0, false);
+        this.writer = new FanOutWriter(Arrays.asList(failing, working), 1, 1, null, 0.5);
+
+        this.writer.write(batch());
+        this.writer.write(batch());
+
+        try {
+            this.writer.flush();
+            throw new AssertionError("Flush should fail");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage().contains("failing"), equalTo(true));
+            assertThat(e.getMessage().contains("working"), equalTo(false));
+        }
+
+        assertThat(working.batches.get(), equalTo(2));
+        assertThat(this.writer.getDocuments(), equalTo(2L * BATCH_SIZE));
+        assertThat(this.writer.getErrors(), equalTo(2L * BATCH_SIZE));
+
+        // failures are counted per flush
+        this.writer.flush();
+    }
+
+    @Test
+    public void failedDocumentsOverMaximumErrorRateFailFlush() throws Exception {
+        StubSink sink = new StubSink("sink", null, 1, false);
+
+        this.writer = new FanOutWriter(Collections.singletonList(sink), 1, 1, null, 0.2);
+        this.writer.write(batch());
+        this.writer.flush();
+        this.writer.close();
+
+        this.writer = new FanOutWriter(Collections.singletonList(sink), 1, 1, null, 0.05);
+        this.writer.write(batch());
+        try {
+            this.writer.flush();
+            throw new AssertionError("Flush should fail");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage().contains("failed 1 of 10 documents"), equalTo(true));
+        }
+        assertThat(this.writer.getErrors(), equalTo(1L));
+    }
+
+    private static List<Document> batch() {
+        List<Document> batch = new ArrayList<Document>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(new Document(String.valueOf(i), "type"));
+        }
+        return batch;
+    }
+
+    private static void waitFor(final StubSink sink, final int batches) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (sink.batches.get() < batches && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertThat(sink.batches.get(), equalTo(batches));
+    }
+
+    private static class StubSink implements DocumentSink {
+        private final String name;
+        private final CountDownLatch release;
+        private final int failedDocuments;
+        private final boolean failing;
+        private final AtomicInteger batches = new AtomicInteger();
+
+        StubSink(final String name, final CountDownLatch release, final int failedDocuments, final boolean failing) {
+            this.name = name;
+            this.release = release;
+            this.failedDocuments = failedDocuments;
+            this.failing = failing;
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public String getCluster() {
+            return this.name;
+        }
+
+        @Override
+        public int write(final List<Document> batch) {
+            if (this.failing) {
+                throw new IllegalStateException("Destination is down");
+            }
+            if (this.release != null) {
+                try {
+                    this.release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+            this.batches.incrementAndGet();
+            return this.failedDocuments;
+        }
+
+        @Override
+        public void initIndex(final Object date) {
+        }
+
+        @Override
+        public void deleteCreatedIndices() {
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.baesystems;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileLeaseStoreTest {
+
+    private static final String JOB = "job";
+    private static final String UNIT = "20150725T000000Z_20150726T000000Z";
+    private static final String WORKER1 = "worker1";
+    private static final String WORKER2 = "worker2";
+    private static final long LEASE_TIME = 60000;
+
+    private FileLeaseStore store;
+
+    @Before
+    public void before() throws Exception {
+        Path directory = Files.createTempDirectory("leases");
+        this.store = new FileLeaseStore(directory.toString(), JOB);
+    }
+
+    @Test
+    public void leaseIsHeldByOneWorker() throws Exception {
+        assertThat(this.store.acquire(UNIT, WORKER1, LEASE_TIME), equalTo(true));
+        assertThat(this.store.acquire(UNIT, WORKER2, LEASE_TIME), equalTo(false));
+        assertThat(this.store.renew(UNIT, WORKER1, LEASE_TIME), equalTo(true));
+        assertThat(this.store.renew(UNIT, WORKER2, LEASE_TIME), equalTo(false));
+    }
+
+    @Test
+    public void expiredLeaseIsTakenOver() throws Exception {
+        assertThat(this.store.acquire(UNIT, WORKER1, -1), equalTo(true));
+        assertThat(this.store.acquire(UNIT, WORKER2, LEASE_TIME), equalTo(true));
+        assertThat(this.store.renew(UNIT, WORKER1, LEASE_TIME), equalTo(false));
+    }
+
+    @Test
+    public void releasedLeaseCanBeAcquired() throws Exception {
+        assertThat(this.store.acquire(UNIT, WORKER1, LEASE_TIME), equalTo(true));
+        this.store.release(UNIT, WORKER1);
+        assertThat(this.store.acquire(UNIT, WORKER2, LEASE_TIME), equalTo(true));
+    }
+
+    @Test
+    public void completedUnitCannotBeAcquired() throws Exception {
+        assertThat(this.store.acquire(UNIT, WORKER1, LEASE_TIME), equalTo(true));
+        this.store.complete(UNIT, WORKER1);
+
+        assertThat(this.store.isCompleted(UNIT), equalTo(true));
+        assertThat(this.store.acquire(UNIT, WORKER2, -1), equalTo(false));
+    }
+}
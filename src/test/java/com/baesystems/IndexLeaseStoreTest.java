@@ -0,0 +1,92 @@
+package com.baesystems;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.baesystems.test.util.ElasticSearchNode;
+
+public class IndexLeaseStoreTest {
+
+    private static final String LEASE_INDEX = "leases";
+    private static final String JOB = "job";
+    private static final String UNIT = "20150725T000000Z_20150726T000000Z";
+    private static final String WORKER1 = "worker1";
+    private static final String WORKER2 = "worker2";
+    private static final long LEASE_TIME = 60000;
+    private static ElasticSearchNode es;
+
+    private IndexLeaseStore store;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        es = new ElasticSearchNode();
+        es.startNode();
+    }
+
+    @AfterClass
+    public static void afterClass() throws Exception {
+        es.shutdownAndClean();
+    }
+
+    @Before
+    public void before() throws Exception {
+        this.store = new IndexLeaseStore(es.getClient(), LEASE_INDEX, JOB);
+    }
+
+    @After
+    public void after() throws Exception {
+        es.deleteIndex(LEASE_INDEX);
+    }
+
+    @Test
+    public void leaseIsHeldByOneWorker() throws Exception {
+        assertThat(this.store.acquire(UNIT, WORKER1, LEASE_TIME), equalTo(true));
+        assertThat(this.store.acquire(UNIT, WORKER2, LEASE_TIME), equalTo(false));
+        assertThat(this.store.renew(UNIT, WORKER1, LEASE_TIME), equalTo(true));
+        assertThat(this.store.renew(UNIT, WORKER2, LEASE_TIME), equalTo(false));
+    }
+
+    @Test
+    public void expiredLeaseIsTakenOver() throws Exception {
+        assertThat(this.store.acquire(UNIT, WORKER1, -1), equalTo(true));
+        assertThat(this.store.acquire(UNIT, WORKER2, LEASE_TIME), equalTo(true));
+        assertThat(this.store.renew(UNIT, WORKER1, LEASE_TIME), equalTo(false));
+    }
+
+    @Test
+    public void releasedLeaseCanBeAcquired() throws Exception {
+        assertThat(this.store.acquire(UNIT, WORKER1, LEASE_TIME), equalTo(true));
+        this.store.release(UNIT, WORKER2);
+        assertThat(this.store.acquire(UNIT, WORKER2, LEASE_TIME), equalTo(false));
+
+        this.store.release(UNIT, WORKER1);
+        assertThat(this.store.acquire(UNIT, WORKER2, LEASE_TIME), equalTo(true));
+    }
+
+    @Test
+    public void completedUnitCannotBeAcquired() throws Exception {
+        assertThat(this.store.acquire(UNIT, WORKER1, LEASE_TIME), equalTo(true));
+        this.store.complete(UNIT, WORKER1);
+
+        assertThat(this.store.isCompleted(UNIT), equalTo(true));
+        assertThat(this.store.acquire(UNIT, WORKER2, -1), equalTo(false));
+        assertThat(this.store.renew(UNIT, WORKER1, LEASE_TIME), equalTo(false));
+    }
+
+    @Test
+    public void leasesOfJobsAreSeparate() throws Exception {
+        IndexLeaseStore other = new IndexLeaseStore(es.getClient(), LEASE_INDEX, "other");
+
+        assertThat(this.store.acquire(UNIT, WORKER1, LEASE_TIME), equalTo(true));
+        this.store.complete(UNIT, WORKER1);
+
+        assertThat(other.isCompleted(UNIT), equalTo(false));
+        assertThat(other.acquire(UNIT, WORKER2, LEASE_TIME), equalTo(true));
+    }
+}
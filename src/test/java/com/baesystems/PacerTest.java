@@ -0,0 +1,55 @@
+package com.baesystems;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+import org.junit.Test;
+
+public class PacerTest {
+
+    private static final String CLUSTER = "cluster";
+
+    @Test
+    public void pauseIsLimitedAndFollowedBySlowPace() throws Exception {
+        Pacer pacer = new Pacer("scroll", 50, 200);
+        pacer.update(CLUSTER, Pacer.Pace.PAUSED, "rejections");
+        assertThat(pacer.getPace(), equalTo(Pacer.Pace.PAUSED));
+
+        long start = System.currentTimeMillis();
+        pacer.await();
+        long waited = System.currentTimeMillis() - start;
+        assertThat(waited >= 200, equalTo(true));
+        assertThat(waited, lessThan(2000L));
+
+        // cluster still reports pause, but the loop keeps going slowly
+        pacer.update(CLUSTER, Pacer.Pace.PAUSED, "rejections");
+        assertThat(pacer.getPace(), equalTo(Pacer.Pace.SLOW));
+        start = System.currentTimeMillis();
+        pacer.await();
+        assertThat(System.currentTimeMillis() - start, lessThan(200L));
+    }
+
+    @Test
+    public void recoveryResumesPausedLoop() throws Exception {
+        final Pacer pacer = new Pacer("bulk", 0, 60000);
+        pacer.update(CLUSTER, Pacer.Pace.PAUSED, "heap");
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                pacer.update(CLUSTER, Pacer.Pace.NORMAL, null);
+            }
+        }).start();
+
+        long start = System.currentTimeMillis();
+        pacer.await();
+        assertThat(System.currentTimeMillis() - start, lessThan(5000L));
+        assertThat(pacer.getPace(), equalTo(Pacer.Pace.NORMAL));
+    }
+}
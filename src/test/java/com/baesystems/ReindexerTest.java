@@ -6,13 +6,16 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasEntry;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.junit.After;
@@ -188,6 +191,80 @@ public class ReindexerTest {
                 equalTo(es.getDocumentTimestamp(INDEX, TIME_TYPE, id)));
     }
 
+    @Test
+    public void documentsAreRoutedIntoDailyIndices() throws Exception {
+        DateTime date = parseStringToDate(DEFAULT_DATE);
+        Map<String, Object> document = generateDocument(date.withHourOfDay(5));
+
+        String id = es.indexDocument(INDEX, TYPE, document);
+
+        this.reindexer = new IntraClusterReindexer(INDEX, TYPE, TIMESTAMP, BATCH_SIZE, client, NEW_INDEX
+                + "-{yyyy.MM.dd}");
+        this.reindexer.reindex(date, date.plusDays(1));
+
+        String dailyIndex = NEW_INDEX + "-" + date.withHourOfDay(5).withZone(DateTimeZone.UTC).toString("yyyy.MM.dd");
+        Map<String, Object> source = es.getDocumentById(dailyIndex, TYPE, id);
+
+        checkDocument(document, source);
+
+        es.deleteIndex(dailyIndex);
+    }
+
+    @Test
+    public void documentIsCopiedToAllDestinations() throws Exception {
+        DateTime date = parseStringToDate(DEFAULT_DATE);
+        Map<String, Object> document = generateDocument(date.withHourOfDay(5));
+
+        String id = es.indexDocument(INDEX, TYPE, document);
+
+        String copyIndex = NEW_INDEX + "-copy";
+        this.reindexer = new IntraClusterReindexer(INDEX, TYPE, TIMESTAMP, BATCH_SIZE, client, NEW_INDEX, copyIndex);
+        this.reindexer.reindex(date, date.plusDays(1));
+
+        checkDocument(document, es.getDocumentById(NEW_INDEX, TYPE, id));
+        checkDocument(document, es.getDocumentById(copyIndex, TYPE, id));
+
+        es.deleteIndex(copyIndex);
+    }
+
+    @Test
+    public void documentsAreCountedPerWindow() throws Exception {
+        DateTime date = parseStringToDate(DEFAULT_DATE);
+
+        es.indexDocument(INDEX, TYPE, generateDocument(date.withHourOfDay(5)));
+        es.indexDocument(INDEX, TYPE, generateDocument(date.plusDays(1).withHourOfDay(5)));
+        es.indexDocument(INDEX, TYPE, generateDocument(date.plusDays(1).withHourOfDay(6)));
+
+        List<TimeWindow> windows = TimeWindow.split(date, date.plusDays(3), 1);
+        Map<TimeWindow, Long> counts = this.reindexer.getDocumentNumberInWindows(windows);
+
+        assertThat(counts.get(windows.get(0)), equalTo(0L));
+        assertThat(counts.get(windows.get(1)), equalTo(2L));
+        assertThat(counts.get(windows.get(2)), equalTo(1L));
+    }
+
+    @Test
+    public void documentIsTransformedBeforeInsert() throws Exception {
+        DateTime date = parseStringToDate(DEFAULT_DATE);
+        Map<String, Object> document = generateDocument(date.withHourOfDay(5));
+
+        String id = es.indexDocument(INDEX, TYPE, document);
+
+        DocumentTransformer renameTransformer = new DocumentTransformer() {
+            @Override
+            public Document transform(final Document document) {
+                Map<String, Object> source = document.getSourceAsMap();
+                source.put("title", source.remove("name"));
+                return document;
+            }
+        };
+        this.reindexer.setTransformers(Collections.singletonList(renameTransformer), 2);
+        this.reindexer.reindex(date, date.plusDays(1));
+
+        document.put("title", document.remove("name"));
+        checkDocument(document, es.getDocumentById(NEW_INDEX, TYPE, id));
+    }
+
     private DateTime parseStringToDate(final String dateString) {
         DateTimeFormatter fmt = DateTimeFormat.forPattern(DATE_FORMAT);
         DateTime date = fmt.parseDateTime(dateString);
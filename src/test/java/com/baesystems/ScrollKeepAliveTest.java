@@ -0,0 +1,89 @@
+package com.baesystems;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScrollKeepAliveTest {
+
+    private ScrollKeepAlive keepAlive;
+
+    @Before
+    public void before() throws Exception {
+        this.keepAlive = new ScrollKeepAlive();
+    }
+
+    @Test
+    public void initialKeepAliveIsUsedBeforeFirstPage() throws Exception {
+        assertThat(this.keepAlive.get(0), equalTo(ScrollKeepAlive.INITIAL));
+    }
+
+    @Test
+    public void keepAliveIsBetweenBounds() throws Exception {
+        this.keepAlive.observe(10);
+        assertThat(this.keepAlive.get(0), equalTo(ScrollKeepAlive.MIN));
+
+        this.keepAlive.observe(ScrollKeepAlive.MAX);
+        assertThat(this.keepAlive.get(0), equalTo(ScrollKeepAlive.MAX));
+    }
+
+    @Test
+    public void keepAliveFollowsSlowestRecentPage() throws Exception {
+        this.keepAlive.observe(5 * 60 * 1000);
+        assertThat(this.keepAlive.get(0), equalTo(15 * 60 * 1000L));
+
+        for (int i = 0; i < 10; i++) {
+            this.keepAlive.observe(1000);
+        }
+        assertThat(this.keepAlive.get(0), lessThan(15 * 60 * 1000L));
+    }
+
+    @Test
+    public void backlogOfSinksIsCoveredWhilePagesOnlyFillQueues() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            this.keepAlive.observe(5);
+        }
+        assertThat(this.keepAlive.get(0), equalTo(ScrollKeepAlive.MIN));
+
+        long backlog = 10 * 60 * 1000;
+        assertThat(this.keepAlive.get(backlog), equalTo(backlog));
+        assertThat(this.keepAlive.get(2 * ScrollKeepAlive.MAX), equalTo(ScrollKeepAlive.MAX));
+    }
+
+    @Test
+    public void initialKeepAliveCoversLongerBacklog() throws Exception {
+        assertThat(this.keepAlive.get(ScrollKeepAlive.INITIAL * 2), equalTo(ScrollKeepAlive.INITIAL * 2));
+    }
+
+    @Test
+    public void pauseStartingAtNormalPaceIsCovered() throws Exception {
+        Pacer pacer = new Pacer("scroll", 0, 300);
+        this.keepAlive = new ScrollKeepAlive(pacer.getMaxPause());
+        this.keepAlive.observe(10);
+
+        // request goes out at normal pace, then the cluster pauses the loop before the next one
+        assertThat(pacer.getPace(), equalTo(Pacer.Pace.NORMAL));
+        long issued = this.keepAlive.get(0);
+        long start = System.currentTimeMillis();
+        pacer.update("cluster", Pacer.Pace.PAUSED, "heap");
+        pacer.await();
+        long paused = System.currentTimeMillis() - start;
+
+        assertThat(issued, equalTo(ScrollKeepAlive.MIN + pacer.getMaxPause()));
+        assertThat(paused, greaterThan(pacer.getMaxPause() - 1));
+        assertThat(paused, lessThan(pacer.getMaxPause() + 1000));
+    }
+
+    @Test
+    public void initialKeepAliveCoversPause() throws Exception {
+        this.keepAlive = new ScrollKeepAlive(60 * 1000);
+        assertThat(this.keepAlive.get(0), equalTo(ScrollKeepAlive.INITIAL + 60 * 1000));
+
+        this.keepAlive.observe(ScrollKeepAlive.MAX);
+        assertThat(this.keepAlive.get(0), equalTo(ScrollKeepAlive.MAX + 60 * 1000));
+    }
+}
@@ -0,0 +1,151 @@
+package com.baesystems;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TransformStageTest {
+
+    private static final int THREADS = 4;
+
+    private final List<String> written = new CopyOnWriteArrayList<String>();
+    private final TransformStage.Output output = new TransformStage.Output() {
+        @Override
+        public void write(final List<Document> batch) {
+            for (Document document : batch) {
+                TransformStageTest.this.written.add(document.getId());
+            }
+        }
+    };
+    private TransformStage stage;
+
+    @After
+    public void after() throws Exception {
+        if (this.stage != null) {
+            this.stage.close();
+        }
+    }
+
+    @Test
+    public void documentsAreDroppedAndOrderIsKept() throws Exception {
+        final Random random = new Random();
+        DocumentTransformer dropOdd = new DocumentTransformer() {
+            @Override
+            public Document transform(final Document document) {
+                // documents of one batch finish in random order on the worker threads
+                sleep(random.nextInt(3));
+                return Integer.parseInt(document.getId()) % 2 == 0 ? document : null;
+            }
+        };
+        this.stage = new TransformStage(Collections.singletonList(dropOdd), THREADS, 2, this.output);
+
+        List<Document> batch = batch(0, 50);
+        List<Document> transformed = this.stage.apply(batch);
+        assertThat(ids(transformed), equalTo(evenIds(0, 50)));
+
+        this.stage.submit(batch(0, 50));
+        this.stage.submit(batch(50, 100));
+        this.stage.submit(batch(100, 101));
+        this.stage.flush();
+        assertThat(this.written, equalTo(evenIds(0, 101)));
+    }
+
+    @Test
+    public void transformationRunsWhileNextBatchIsRead() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        DocumentTransformer blocked = new DocumentTransformer() {
+            @Override
+            public Document transform(final Document document) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return document;
+            }
+        };
+        this.stage = new TransformStage(Collections.singletonList(blocked), THREADS, 1, this.output);
+
+        // first batch is being transformed, second one waits in the queue, reader isn't blocked by either
+        this.stage.submit(batch(0, 10));
+        this.stage.submit(batch(10, 20));
+        assertThat(this.written.isEmpty(), equalTo(true));
+
+        release.countDown();
+        this.stage.flush();
+        assertThat(this.written.size(), equalTo(20));
+    }
+
+    @Test
+    public void failedTransformationFailsFlush() throws Exception {
+        DocumentTransformer failing = new DocumentTransformer() {
+            @Override
+            public Document transform(final Document document) {
+                if (document.getId().equals("5")) {
+                    throw new IllegalArgumentException("Cannot transform");
+                }
+                return document;
+            }
+        };
+        this.stage = new TransformStage(Arrays.asList(failing), THREADS, 2, this.output);
+
+        this.stage.submit(batch(0, 10));
+        this.stage.submit(batch(10, 20));
+        try {
+            this.stage.flush();
+            throw new AssertionError("Flush should fail");
+        } catch (RuntimeException e) {
+            assertThat(e.getCause().getMessage(), equalTo("Cannot transform"));
+        }
+        assertThat(this.written.isEmpty(), equalTo(true));
+
+        // failure is reported once
+        this.stage.submit(batch(10, 20));
+        this.stage.flush();
+        assertThat(this.written.size(), equalTo(10));
+    }
+
+    private static List<Document> batch(final int from, final int to) {
+        List<Document> batch = new ArrayList<Document>();
+        for (int i = from; i < to; i++) {
+            batch.add(new Document(String.valueOf(i), "type"));
+        }
+        return batch;
+    }
+
+    private static List<String> ids(final List<Document> documents) {
+        List<String> ids = new ArrayList<String>();
+        for (Document document : documents) {
+            ids.add(document.getId());
+        }
+        return ids;
+    }
+
+    private static List<String> evenIds(final int from, final int to) {
+        List<String> ids = new ArrayList<String>();
+        for (int i = from; i < to; i++) {
+            if (i % 2 == 0) {
+                ids.add(String.valueOf(i));
+            }
+        }
+        return ids;
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.baesystems;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WorkCoordinatorTest {
+
+    private static final String JOB = "job";
+    private static final String WORKER1 = "worker1";
+    private static final String WORKER2 = "worker2";
+    private static final long LEASE_TIME = 300;
+    private static final long TIMEOUT = 10000;
+
+    private FileLeaseStore store;
+    private List<TimeWindow> windows;
+
+    @Before
+    public void before() throws Exception {
+        Path directory = Files.createTempDirectory("leases");
+        this.store = new FileLeaseStore(directory.toString(), JOB);
+        this.windows = TimeWindow.split(new DateTime(2015, 7, 20, 0, 0, DateTimeZone.UTC),
+                new DateTime(2015, 7, 26, 0, 0, DateTimeZone.UTC), 1);
+    }
+
+    @Test
+    public void workersShareWindows() throws Exception {
+        final Map<String, String> processed = new ConcurrentHashMap<String, String>();
+        final AtomicBoolean twice = new AtomicBoolean();
+
+        List<Thread> workers = new ArrayList<Thread>();
+        for (final String worker : new String[] { WORKER1, WORKER2 }) {
+            workers.add(start(new Runnable() {
+                @Override
+                public void run() {
+                    new WorkCoordinator(WorkCoordinatorTest.this.store, worker, LEASE_TIME).run(
+                            WorkCoordinatorTest.this.windows, new WorkCoordinator.Task() {
+                                @Override
+                                public void process(final TimeWindow window) {
+                                    if (processed.put(window.getId(), worker) != null) {
+                                        twice.set(true);
+                                    }
+                                    sleep(50);
+                                }
+                            });
+                }
+            }));
+        }
+        join(workers);
+
+        assertThat(twice.get(), equalTo(false));
+        assertThat(processed.size(), equalTo(this.windows.size()));
+        assertThat(processed.containsValue(WORKER1), equalTo(true));
+        assertThat(processed.containsValue(WORKER2), equalTo(true));
+        for (TimeWindow window : this.windows) {
+            assertThat(this.store.isCompleted(window.getId()), equalTo(true));
+        }
+    }
+
+    @Test
+    public void windowOfCrashedWorkerIsTakenOver() throws Exception {
+        final TimeWindow window = this.windows.get(0);
+
+        // error isn't handled by the coordinator, so the lease stays until it expires like with a killed process
+        try {
+            new WorkCoordinator(this.store, WORKER1, LEASE_TIME).run(this.windows, new WorkCoordinator.Task() {
+                @Override
+                public void process(final TimeWindow claimed) {
+                    throw new Error("crash");
+                }
+            });
+            throw new AssertionError("Worker should crash");
+        } catch (Error e) {
+            assertThat(e.getMessage(), equalTo("crash"));
+        }
+        assertThat(this.store.acquire(window.getId(), WORKER2, LEASE_TIME), equalTo(false));
+
+        final List<String> processed = new CopyOnWriteArrayList<String>();
+        join(Collections.singletonList(start(new Runnable() {
+            @Override
+            public void run() {
+                new WorkCoordinator(WorkCoordinatorTest.this.store, WORKER2, LEASE_TIME).run(
+                        WorkCoordinatorTest.this.windows, new WorkCoordinator.Task() {
+                            @Override
+                            public void process(final TimeWindow claimed) {
+                                processed.add(claimed.getId());
+                            }
+                        });
+            }
+        })));
+
+        assertThat(processed.size(), equalTo(this.windows.size()));
+        assertThat(this.store.isCompleted(window.getId()), equalTo(true));
+    }
+
+    @Test
+    public void leaseIsRenewedWhileWindowIsProcessed() throws Exception {
+        final AtomicBoolean stolen = new AtomicBoolean(true);
+
+        new WorkCoordinator(this.store, WORKER1, LEASE_TIME).run(this.windows.subList(0, 1),
+                new WorkCoordinator.Task() {
+                    @Override
+                    public void process(final TimeWindow window) {
+                        sleep(3 * LEASE_TIME);
+                        stolen.set(WorkCoordinatorTest.this.store.acquire(window.getId(), WORKER2, LEASE_TIME));
+                    }
+                });
+
+        assertThat(stolen.get(), equalTo(false));
+        assertThat(this.store.isCompleted(this.windows.get(0).getId()), equalTo(true));
+    }
+
+    @Test
+    public void lostLeaseDoesNotStopWindow() throws Exception {
+        final AtomicBoolean renewed = new AtomicBoolean(true);
+
+        new WorkCoordinator(this.store, WORKER1, LEASE_TIME).run(this.windows.subList(0, 1),
+                new WorkCoordinator.Task() {
+                    @Override
+                    public void process(final TimeWindow window) {
+                        // lease expires while the worker is stalled and another worker takes it over
+                        WorkCoordinatorTest.this.store.release(window.getId(), WORKER1);
+                        WorkCoordinatorTest.this.store.acquire(window.getId(), WORKER2, TIMEOUT);
+                        sleep(LEASE_TIME);
+                        renewed.set(WorkCoordinatorTest.this.store.renew(window.getId(), WORKER1, LEASE_TIME));
+                    }
+                });
+
+        assertThat(renewed.get(), equalTo(false));
+        assertThat(this.store.isCompleted(this.windows.get(0).getId()), equalTo(true));
+    }
+
+    @Test
+    public void failedWindowReleasesLeaseAndOthersContinue() throws Exception {
+        final TimeWindow window = this.windows.get(0);
+        final List<String> processed = new CopyOnWriteArrayList<String>();
+        try {
+            new WorkCoordinator(this.store, WORKER1, TIMEOUT).run(this.windows, new WorkCoordinator.Task() {
+                @Override
+                public void process(final TimeWindow claimed) {
+                    if (claimed.equals(window)) {
+                        throw new IllegalStateException("Writing documents failed");
+                    }
+                    processed.add(claimed.getId());
+                }
+            });
+            throw new AssertionError("Failure should be reported");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage().contains(window.toString()), equalTo(true));
+        }
+
+        assertThat(processed.size(), equalTo(this.windows.size() - 1));
+        assertThat(this.store.isCompleted(window.getId()), equalTo(false));
+        assertThat(this.store.isCompleted(this.windows.get(1).getId()), equalTo(true));
+        assertThat(this.store.acquire(window.getId(), WORKER2, TIMEOUT), equalTo(true));
+    }
+
+    private static Thread start(final Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.start();
+        return thread;
+    }
+
+    private static void join(final List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT);
+            assertThat(thread.isAlive(), equalTo(false));
+        }
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}